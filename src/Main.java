@@ -145,13 +145,13 @@ public class Main
 	    	String forest_name = (xml_file == null)? generated_filename : xml_file;
 	    	
 	        // Read the initial state from the XML file
-	    	State currentState = new State(forest_name, reader.getBeliefs(), reader.getIntentions(), 0);
+	    	State currentState = new State(forest_name, reader.getBeliefs(), reader.getForest(), 0);
 	        
 	        // Calculate the coverage (for C0 and C1)
 	        CoverageCalculator cc = new CoverageCalculator();
-	        for (int i = 0; i < currentState.intentions.size(); i++)
+	        for (int i = 0; i < currentState.getTotalNumberOfGPTs(); i++)
 	        {
-	            cc.calG((GoalNode)currentState.intentions.get(i));
+	            cc.calG((GoalNode)currentState.getIntention(i));
 	        }
 	        
 	        if (run_extra_alpha_experiment)
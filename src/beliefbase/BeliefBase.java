@@ -1,8 +1,12 @@
 package beliefbase;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+
+import util.Zobrist;
 
 /**
  * @author yuanyao
@@ -11,14 +15,43 @@ import java.util.Map;
  *
  * a more general belief can be positive or negative
  * and contains a functor together with 0 or n parameters
+ *
+ * each literal is identified by its id in a literal dictionary, and the belief base stores one value bit
+ * and one presence bit per literal, so that clone is an array copy and evaluate/apply are bit operations.
+ * subclasses may store the words differently by overriding the word access methods.
  */
 
 public class BeliefBase implements Cloneable, Iterable<Map.Entry<String, Boolean>> {
 
     /**
-     * a belief base is a map of functor value pairs,
+     * number of literals stored in a word
+     */
+    protected static final int WORD_SIZE = 64;
+
+    /**
+     * bit vectors of a belief base which does not store its words in arrays
+     */
+    private static final long[] NO_WORDS = new long[0];
+
+    /**
+     * the dictionary which assigns an id to each literal
+     */
+    private LiteralDictionary dictionary;
+
+    /**
+     * the value of each literal, indexed by literal id
      */
-    private Map<String, Boolean> bbMap;
+    private long[] values;
+
+    /**
+     * the literals that appear in this belief base, indexed by literal id
+     */
+    private long[] known;
+
+    /**
+     * number of literals that appear in this belief base
+     */
+    private int size;
 
     /**
      * initial capacity of this belief base
@@ -30,6 +63,28 @@ public class BeliefBase implements Cloneable, Iterable<Map.Entry<String, Boolean
      */
     private String id;
 
+    /**
+     * Zobrist hash of the literals that hold in this belief base
+     */
+    private long hash;
+
+    /**
+     * true if the changes to this belief base are recorded so that they can be undone
+     */
+    private boolean journaling;
+
+    /**
+     * the journal: the index and the previous content of each word written since journaling started
+     */
+    private int[] journalWords;
+    private long[] journalValues;
+    private long[] journalKnown;
+
+    /**
+     * number of entries in the journal
+     */
+    private int journalSize;
+
 
     /**
      * initialisation
@@ -57,6 +112,59 @@ public class BeliefBase implements Cloneable, Iterable<Map.Entry<String, Boolean
         init();
     }
 
+    /**
+     * initialisation with a literal dictionary shared with the conditions of a forest
+     * @param identity
+     * @param dictionary
+     */
+    public BeliefBase(String identity, LiteralDictionary dictionary){
+        id = identity;
+        this.dictionary = dictionary;
+        initialCapacity = dictionary.size();
+        init();
+    }
+
+    /**
+     * copy the given belief base into bit vectors, whatever the way it stores its words
+     * @param other
+     */
+    public BeliefBase(BeliefBase other){
+        id = other.id;
+        initialCapacity = other.initialCapacity;
+        dictionary = other.dictionary;
+        size = other.size;
+        hash = other.hash;
+        if(other.values != NO_WORDS){
+            values = other.values.clone();
+            known = other.known.clone();
+        }else{
+            int words = other.words();
+            values = new long[words];
+            known = new long[words];
+            for(int i = 0; i < words; i++){
+                values[i] = other.valueWord(i);
+                known[i] = other.knownWord(i);
+            }
+        }
+    }
+
+    /**
+     * initialisation of a subclass which stores the words of the belief base itself
+     * @param identity
+     * @param dictionary
+     * @param size the number of literals that appear in the belief base
+     * @param hash the hash of the belief base
+     */
+    protected BeliefBase(String identity, LiteralDictionary dictionary, int size, long hash){
+        id = identity;
+        this.dictionary = dictionary;
+        this.initialCapacity = dictionary.size();
+        this.size = size;
+        this.hash = hash;
+        values = NO_WORDS;
+        known = NO_WORDS;
+    }
+
     /**
      * initialisation
      */
@@ -64,15 +172,27 @@ public class BeliefBase implements Cloneable, Iterable<Map.Entry<String, Boolean
         // if the initial capacity is not given, then assign it to 32 as default
         if(initialCapacity == 0)
             initialCapacity = 32;
-        // create the hash map to maintain agent's belief base
-        bbMap = new HashMap<>(initialCapacity);
+        // a belief base created without a dictionary maintains its own one
+        if(dictionary == null)
+            dictionary = new LiteralDictionary(initialCapacity);
+        // create the bit vectors to maintain agent's belief base
+        int words = (initialCapacity + WORD_SIZE - 1) / WORD_SIZE;
+        values = new long[words];
+        known = new long[words];
     }
 
     /**
      * @return the size of this belief base
      */
     public int getSize(){
-        return bbMap.size();
+        return size;
+    }
+
+    /**
+     * @return the literal dictionary of this belief base
+     */
+    public LiteralDictionary getDictionary(){
+        return dictionary;
     }
 
     /**
@@ -82,12 +202,71 @@ public class BeliefBase implements Cloneable, Iterable<Map.Entry<String, Boolean
         return id;
     }
 
+    /**
+     * @return the Zobrist hash of this belief base, which only depends on the literals that hold in it
+     */
+    public long getHash(){
+        return hash;
+    }
+
+    /**
+     * update the hash for the given value bits of a word which have been flipped
+     */
+    private void rehash(int word, long flipped){
+        while(flipped != 0){
+            hash ^= Zobrist.literal(word * WORD_SIZE + Long.numberOfTrailingZeros(flipped));
+            flipped &= flipped - 1;
+        }
+    }
+
+    /**
+     * @return the number of words that may contain a literal of this belief base
+     */
+    protected int words(){
+        return values.length;
+    }
+
+    /**
+     * @param word the index of a word
+     * @return the values of the literals in the given word, 0 beyond the end of the belief base
+     */
+    protected long valueWord(int word){
+        return word < values.length ? values[word] : 0L;
+    }
+
+    /**
+     * @param word the index of a word
+     * @return the literals of the given word that appear in this belief base, 0 beyond the end of the belief base
+     */
+    protected long knownWord(int word){
+        return word < known.length ? known[word] : 0L;
+    }
+
+    /**
+     * update a word of this belief base, growing it if necessary
+     * @param word the index of the word
+     * @param value the values of the literals in this word
+     * @param present the literals of this word that appear in this belief base
+     */
+    protected void setWord(int word, long value, long present){
+        if(word >= values.length){
+            grow(word + 1);
+        }
+        values[word] = value;
+        known[word] = present;
+    }
+
     /**
      * add a belief to the belief base or update the value of a literal in the belief base
      * @return true if a belief is added to the belief base; false if the value of an existing belief is updated
      */
     public boolean apply(Condition condition){
-        return bbMap.put(condition.getLiteral(), condition.isPositive()) == null;
+        int literal = dictionary.idOf(condition);
+        // a literal which is not in the dictionary yet is added to it
+        if(literal < 0){
+            literal = dictionary.intern(condition.getLiteral());
+        }
+        return set(literal, condition.isPositive());
     }
 
     /**
@@ -103,6 +282,145 @@ public class BeliefBase implements Cloneable, Iterable<Map.Entry<String, Boolean
         }
     }
 
+    /**
+     * apply a compiled list of conditions to this belief base
+     * @param mask
+     */
+    public void apply(ConditionMask mask){
+        // a mask compiled against another dictionary has to be applied condition by condition
+        if(mask.dictionary != dictionary){
+            apply(mask.conditions);
+            return;
+        }
+
+        long[] care = mask.care;
+        long[] value = mask.value;
+        for(int i = 0; i < care.length; i++){
+            long oldValue = valueWord(i);
+            long oldKnown = knownWord(i);
+            long newValue = (oldValue & ~care[i]) | value[i];
+            long newKnown = oldKnown | care[i];
+            // only the words that change are written
+            if(newValue != oldValue || newKnown != oldKnown){
+                size += Long.bitCount(newKnown ^ oldKnown);
+                write(i, oldValue, oldKnown, newValue, newKnown);
+            }
+        }
+    }
+
+    /**
+     * set the value of the literal with the given id
+     * @return true if a belief is added to the belief base; false if the value of an existing belief is updated
+     */
+    private boolean set(int literal, boolean value){
+        int word = literal / WORD_SIZE;
+        long bit = 1L << literal;
+        long oldValue = valueWord(word);
+        long oldKnown = knownWord(word);
+        long newValue = value ? (oldValue | bit) : (oldValue & ~bit);
+        long newKnown = oldKnown | bit;
+        if(newValue != oldValue || newKnown != oldKnown){
+            write(word, oldValue, oldKnown, newValue, newKnown);
+        }
+        boolean added = newKnown != oldKnown;
+        if(added){
+            size++;
+        }
+        return added;
+    }
+
+    /**
+     * update a word, recording its previous content in the journal if journaling is on
+     */
+    private void write(int word, long oldValue, long oldKnown, long newValue, long newKnown){
+        if(journaling){
+            if(journalSize == journalWords.length){
+                int capacity = journalWords.length * 2;
+                journalWords = Arrays.copyOf(journalWords, capacity);
+                journalValues = Arrays.copyOf(journalValues, capacity);
+                journalKnown = Arrays.copyOf(journalKnown, capacity);
+            }
+            journalWords[journalSize] = word;
+            journalValues[journalSize] = oldValue;
+            journalKnown[journalSize] = oldKnown;
+            journalSize++;
+        }
+        rehash(word, oldValue ^ newValue);
+        setWord(word, newValue, newKnown);
+    }
+
+    /**
+     * start recording the changes to this belief base, if it is not recording them already
+     * @return a mark which can be passed to undo to return to the current content of this belief base
+     */
+    public int mark(){
+        if(!journaling){
+            journaling = true;
+            journalSize = 0;
+            if(journalWords == null){
+                journalWords = new int[16];
+                journalValues = new long[16];
+                journalKnown = new long[16];
+            }
+        }
+        return journalSize;
+    }
+
+    /**
+     * undo all the changes made since the given mark, in time proportional to the number of changes
+     * @param mark a mark returned by mark()
+     */
+    public void undo(int mark){
+        while(journalSize > mark){
+            journalSize--;
+            int word = journalWords[journalSize];
+            size -= Long.bitCount(knownWord(word) ^ journalKnown[journalSize]);
+            rehash(word, valueWord(word) ^ journalValues[journalSize]);
+            setWord(word, journalValues[journalSize], journalKnown[journalSize]);
+        }
+    }
+
+    /**
+     * stop recording the changes to this belief base and forget the recorded ones
+     */
+    public void release(){
+        journaling = false;
+        journalSize = 0;
+    }
+
+    /**
+     * overwrite this belief base with the content of the given one, reusing the bit vectors of this belief base.
+     * this also forgets the recorded changes.
+     * @param other
+     */
+    public void copyFrom(BeliefBase other){
+        dictionary = other.dictionary;
+        int words = Math.max(words(), other.words());
+        for(int i = 0; i < words; i++){
+            long value = other.valueWord(i);
+            long present = other.knownWord(i);
+            if(value != valueWord(i) || present != knownWord(i)){
+                setWord(i, value, present);
+            }
+        }
+        size = other.size;
+        hash = other.hash;
+        journalSize = 0;
+    }
+
+    /**
+     * grow the bit vectors so that they contain at least the given number of words
+     * @param words
+     */
+    private void grow(int words){
+        long[] nValues = new long[Math.max(words, values.length * 2)];
+        long[] nKnown = new long[nValues.length];
+        System.arraycopy(values, 0, nValues, 0, values.length);
+        System.arraycopy(known, 0, nKnown, 0, known.length);
+        values = nValues;
+        known = nKnown;
+    }
+
     /**
      * evaluate if a specified literal holds or doesn't hold in the current belief base
      * a literal holds if it appears in the belief base and its corresponding value is true.
@@ -112,12 +430,14 @@ public class BeliefBase implements Cloneable, Iterable<Map.Entry<String, Boolean
      * the given condition is false and the corresponding literal does not hold; false, otherwise.
      */
     public boolean evaluate(Condition condition){
-        // get the value of a specified literal in the belief base(null if it does not exist)
-        Boolean value = bbMap.get(condition.getLiteral());
-        if(value == null){
+        int literal = dictionary.idOf(condition);
+        // a literal which is not in the dictionary does not hold
+        if(literal < 0){
             return !condition.isPositive();
         }
-        return (value == condition.isPositive()) ? true : false;
+        // a literal which does not appear in the belief base has its value bit cleared
+        boolean value = (valueWord(literal / WORD_SIZE) & (1L << literal)) != 0;
+        return value == condition.isPositive();
     }
 
 
@@ -137,26 +457,112 @@ public class BeliefBase implements Cloneable, Iterable<Map.Entry<String, Boolean
         return true;
     }
 
+    /**
+     * evaluate a compiled list of conditions
+     * @param mask
+     * @return true if all the conditions hold in the current belief base; false, otherwise.
+     */
+    public boolean evaluate(ConditionMask mask){
+        // a mask compiled against another dictionary has to be evaluated condition by condition
+        if(mask.dictionary != dictionary){
+            return evaluate(mask.conditions);
+        }
+        if(!mask.satisfiable){
+            return false;
+        }
+
+        long[] care = mask.care;
+        long[] value = mask.value;
+        for(int i = 0; i < care.length; i++){
+            if(((valueWord(i) ^ value[i]) & care[i]) != 0){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * under the closed world assumption, two belief bases are equal if the same literals hold in them
+     * @param o the given object
+     * @return true if the same literals hold in both belief bases; false, otherwise.
+     */
+    @Override
+    public boolean equals(Object o){
+        if(this == o) return true;
+        if(!(o instanceof BeliefBase)) return false;
+        BeliefBase other = (BeliefBase) o;
+        if(hash != other.hash) return false;
+
+        int words = Math.max(words(), other.words());
+        for(int i = 0; i < words; i++){
+            if(valueWord(i) != other.valueWord(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode(){
+        return (int) (hash ^ (hash >>> 32));
+    }
+
     /**
      * clone
      * @return
      */
     @Override
     public BeliefBase clone(){
-        BeliefBase beliefBaseImp = new BeliefBase(id, getSize());
-        for(Map.Entry<String, Boolean> b : this){
-            beliefBaseImp.bbMap.put(b.getKey(), b.getValue());
-        }
-        return beliefBaseImp;
+        return new BeliefBase(this);
     }
 
     /**
-     * iterator
+     * iterator over the literals that appear in this belief base, in the order of their ids
      * @return
      */
     @Override
     public Iterator<Map.Entry<String, Boolean>> iterator(){
-        return bbMap.entrySet().iterator();
+        return new Iterator<Map.Entry<String, Boolean>>() {
+            private int next = nextKnown(0);
+
+            @Override
+            public boolean hasNext(){
+                return next >= 0;
+            }
+
+            @Override
+            public Map.Entry<String, Boolean> next(){
+                if(next < 0){
+                    throw new NoSuchElementException();
+                }
+                int literal = next;
+                next = nextKnown(literal + 1);
+                boolean value = (valueWord(literal / WORD_SIZE) & (1L << literal)) != 0;
+                return new AbstractMap.SimpleImmutableEntry<>(dictionary.getLiteral(literal), value);
+            }
+        };
+    }
+
+    /**
+     * @param from the first literal id to check
+     * @return the smallest id not less than from of a literal that appears in this belief base, -1 if there is none
+     */
+    private int nextKnown(int from){
+        int word = from / WORD_SIZE;
+        int words = words();
+        if(word >= words){
+            return -1;
+        }
+        long bits = knownWord(word) & (-1L << from);
+        while(true){
+            if(bits != 0){
+                return word * WORD_SIZE + Long.numberOfTrailingZeros(bits);
+            }
+            if(++word == words){
+                return -1;
+            }
+            bits = knownWord(word);
+        }
     }
 
     /**
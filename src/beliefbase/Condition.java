@@ -12,11 +12,21 @@ public class Condition implements Comparable<Condition>, Cloneable{
      */
     boolean value;
 
+    /**
+     * id of the literal in a literal dictionary, -1 if it has not been interned
+     */
+    int id = -1;
+
     public Condition(String l, boolean v){
         this.literal = l;
         this.value = v;
     }
 
+    private Condition(String l, boolean v, int id){
+        this(l, v);
+        this.id = id;
+    }
+
     /**
      * @return the name of this literal
      */
@@ -24,6 +34,13 @@ public class Condition implements Comparable<Condition>, Cloneable{
         return this.literal;
     }
 
+    /**
+     * @return the id of this literal, -1 if it has not been interned in a literal dictionary
+     */
+    public int getId(){
+        return this.id;
+    }
+
 
     /**
      * @return true if this literal is positive; false, otherwise.
@@ -97,6 +114,6 @@ public class Condition implements Comparable<Condition>, Cloneable{
      */
     @Override
     public Condition clone(){
-        return new Condition(literal, value);
+        return new Condition(literal, value, id);
     }
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+package beliefbase;
+
+/**
+ * a list of conditions compiled against a literal dictionary.
+ *
+ * the care mask has a bit set for every literal mentioned by the conditions, and the value mask has
+ * the required value of each of these literals. a whole precondition can then be evaluated with one
+ * AND/XOR per word, and a whole postcondition applied with one masked OR/AND-NOT per word.
+ */
+public class ConditionMask {
+
+    /**
+     * the dictionary this mask was compiled against
+     */
+    final LiteralDictionary dictionary;
+
+    /**
+     * the conditions this mask was compiled from
+     */
+    final Condition[] conditions;
+
+    /**
+     * the literals mentioned by the conditions, indexed by literal id
+     */
+    final long[] care;
+
+    /**
+     * the values of the literals mentioned by the conditions, indexed by literal id
+     */
+    final long[] value;
+
+    /**
+     * the ids of the literals mentioned by the conditions, in increasing order
+     */
+    final int[] literals;
+
+    /**
+     * false if the conditions require a literal to be both true and false
+     */
+    final boolean satisfiable;
+
+    /**
+     * compile a list of conditions
+     * @param conditions the given conditions
+     * @param dictionary the dictionary of the belief bases this mask is applied to
+     */
+    public ConditionMask(Condition[] conditions, LiteralDictionary dictionary){
+        this.dictionary = dictionary;
+        this.conditions = conditions == null ? new Condition[0] : conditions;
+
+        // the mask only needs to be as long as the highest literal it mentions
+        int words = 0;
+        int[] ids = new int[this.conditions.length];
+        for(int i = 0; i < this.conditions.length; i++){
+            ids[i] = dictionary.idOf(this.conditions[i]);
+            if(ids[i] < 0){
+                ids[i] = dictionary.intern(this.conditions[i].getLiteral());
+            }
+            words = Math.max(words, ids[i] / 64 + 1);
+        }
+
+        care = new long[words];
+        value = new long[words];
+        boolean consistent = true;
+        for(int i = 0; i < this.conditions.length; i++){
+            int literal = ids[i];
+            int word = literal / 64;
+            long bit = 1L << literal;
+            if((care[word] & bit) != 0 && ((value[word] & bit) != 0) != this.conditions[i].isPositive()){
+                consistent = false;
+            }
+            care[word] |= bit;
+            // as with applying the conditions one by one, the last condition on a literal wins
+            if(this.conditions[i].isPositive()){
+                value[word] |= bit;
+            }else{
+                value[word] &= ~bit;
+            }
+        }
+        satisfiable = consistent;
+
+        int count = 0;
+        for(int i = 0; i < words; i++){
+            count += Long.bitCount(care[i]);
+        }
+        literals = new int[count];
+        count = 0;
+        for(int i = 0; i < words; i++){
+            for(long bits = care[i]; bits != 0; bits &= bits - 1){
+                literals[count++] = i * 64 + Long.numberOfTrailingZeros(bits);
+            }
+        }
+    }
+
+    /**
+     * @return the conditions this mask was compiled from
+     */
+    public Condition[] getConditions(){
+        return this.conditions;
+    }
+
+    /**
+     * @return the dictionary this mask was compiled against
+     */
+    public LiteralDictionary getDictionary(){
+        return this.dictionary;
+    }
+
+    /**
+     * @return the ids of the literals mentioned by this mask, in increasing order
+     */
+    public int[] getLiterals(){
+        return this.literals;
+    }
+
+    /**
+     * @param word the index of a word, less than getWords()
+     * @return the given word of the mask of the literals mentioned by the conditions
+     */
+    public long getCare(int word){
+        return this.care[word];
+    }
+
+    /**
+     * @return the number of words in this mask
+     */
+    public int getWords(){
+        return care.length;
+    }
+
+    /**
+     * @return true if this mask does not mention any literal
+     */
+    public boolean isEmpty(){
+        return conditions.length == 0;
+    }
+}
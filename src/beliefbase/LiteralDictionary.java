@@ -0,0 +1,129 @@
+package beliefbase;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * a dictionary of literal names.
+ *
+ * every literal is given a dense integer id, so that a belief base can be stored as bit vectors
+ * and a condition can be evaluated without hashing its literal name. the dictionary is built once
+ * when a forest is loaded and is then shared by all belief bases derived from it.
+ */
+public class LiteralDictionary {
+
+    /**
+     * literal name to id
+     */
+    private final ConcurrentHashMap<String, Integer> ids;
+
+    /**
+     * id to literal name
+     */
+    private volatile String[] names;
+
+    /**
+     * number of literals in this dictionary
+     */
+    private volatile int size;
+
+    public LiteralDictionary(){
+        this(32);
+    }
+
+    /**
+     * @param capacity the expected number of literals
+     */
+    public LiteralDictionary(int capacity){
+        ids = new ConcurrentHashMap<>(Math.max(capacity, 1));
+        names = new String[Math.max(capacity, 1)];
+        size = 0;
+    }
+
+    /**
+     * @return the number of literals in this dictionary
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * @param literal the name of a literal
+     * @return the id of the given literal, or -1 if it is not in this dictionary
+     */
+    public int getId(String literal){
+        Integer id = ids.get(literal);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id the id of a literal
+     * @return the name of the literal with the given id
+     */
+    public String getLiteral(int id){
+        return names[id];
+    }
+
+    /**
+     * add a literal to this dictionary if it is not there yet
+     * @param literal the name of a literal
+     * @return the id of this literal
+     */
+    public int intern(String literal){
+        Integer id = ids.get(literal);
+        if(id != null){
+            return id;
+        }
+        synchronized (this){
+            id = ids.get(literal);
+            if(id != null){
+                return id;
+            }
+            if(size == names.length){
+                names = Arrays.copyOf(names, names.length * 2);
+            }
+            names[size] = literal;
+            ids.put(literal, size);
+            return size++;
+        }
+    }
+
+    /**
+     * intern the literal of the given condition and record its id in the condition
+     * @param condition the given condition
+     * @return the id of the literal of this condition
+     */
+    public int intern(Condition condition){
+        int id = intern(condition.literal);
+        // share the name instance with the dictionary, so that the id can be verified by reference
+        condition.literal = names[id];
+        condition.id = id;
+        return id;
+    }
+
+    /**
+     * intern a list of conditions
+     * @param conditions
+     */
+    public void intern(Condition[] conditions){
+        if(conditions == null)
+            return;
+
+        for(int i = 0; i < conditions.length; i++){
+            intern(conditions[i]);
+        }
+    }
+
+    /**
+     * @param condition the given condition
+     * @return the id of the literal of this condition in this dictionary, or -1 if it is not in this dictionary
+     */
+    public int idOf(Condition condition){
+        int id = condition.id;
+        // the id stored in the condition is only valid if it was assigned by this dictionary
+        if(id >= 0 && id < size && names[id] == condition.literal){
+            return id;
+        }
+        return getId(condition.literal);
+    }
+}
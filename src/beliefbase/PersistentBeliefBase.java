@@ -0,0 +1,124 @@
+package beliefbase;
+
+/**
+ * a belief base whose words are stored in a persistent trie.
+ *
+ * the nodes of the trie are never modified: updating a word copies the path from the root to the leaf
+ * of that word, and clone shares the whole trie. a belief base derived from another one by applying a
+ * postcondition therefore shares all unchanged structure with it, and only costs memory proportional to
+ * the number of words the postcondition changes.
+ */
+public class PersistentBeliefBase extends BeliefBase {
+
+    /**
+     * number of index bits used by each inner node
+     */
+    private static final int BITS = 4;
+
+    /**
+     * number of children of each inner node
+     */
+    private static final int BRANCH = 1 << BITS;
+
+    /**
+     * root of the trie. a leaf is a long[] {value, known} holding one word, an inner node is an Object[BRANCH]
+     * and a missing child is null
+     */
+    private Object root;
+
+    /**
+     * number of inner node levels above the leaves
+     */
+    private int levels;
+
+    /**
+     * copy the given belief base into a trie
+     * @param beliefs
+     */
+    public PersistentBeliefBase(BeliefBase beliefs){
+        super(beliefs.getId(), beliefs.getDictionary(), beliefs.getSize(), beliefs.getHash());
+        for(int i = 0; i < beliefs.words(); i++){
+            long value = beliefs.valueWord(i);
+            long known = beliefs.knownWord(i);
+            if(value != 0 || known != 0){
+                setWord(i, value, known);
+            }
+        }
+    }
+
+    /**
+     * copy constructor used by clone, which shares the trie
+     * @param other
+     */
+    private PersistentBeliefBase(PersistentBeliefBase other){
+        super(other.getId(), other.getDictionary(), other.getSize(), other.getHash());
+        root = other.root;
+        levels = other.levels;
+    }
+
+    @Override
+    protected int words(){
+        return 1 << (levels * BITS);
+    }
+
+    /**
+     * @param word the index of a word
+     * @return the leaf holding the given word, null if this word has never been set
+     */
+    private long[] leaf(int word){
+        if(word >= words()){
+            return null;
+        }
+        Object node = root;
+        for(int level = levels; level > 0 && node != null; level--){
+            node = ((Object[]) node)[(word >>> ((level - 1) * BITS)) & (BRANCH - 1)];
+        }
+        return (long[]) node;
+    }
+
+    @Override
+    protected long valueWord(int word){
+        long[] leaf = leaf(word);
+        return leaf == null ? 0L : leaf[0];
+    }
+
+    @Override
+    protected long knownWord(int word){
+        long[] leaf = leaf(word);
+        return leaf == null ? 0L : leaf[1];
+    }
+
+    @Override
+    protected void setWord(int word, long value, long present){
+        // add levels on top of the trie until it is large enough
+        while(word >= words()){
+            Object[] nRoot = new Object[BRANCH];
+            nRoot[0] = root;
+            root = nRoot;
+            levels++;
+        }
+        root = assoc(root, levels, word, value, present);
+    }
+
+    /**
+     * @return a copy of the given node in which the given word is replaced, sharing all the other children
+     */
+    private static Object assoc(Object node, int level, int word, long value, long present){
+        if(level == 0){
+            return new long[] {value, present};
+        }
+        Object[] copy = node == null ? new Object[BRANCH] : ((Object[]) node).clone();
+        int child = (word >>> ((level - 1) * BITS)) & (BRANCH - 1);
+        copy[child] = assoc(copy[child], level - 1, word, value, present);
+        return copy;
+    }
+
+    /**
+     * clone, sharing the trie of this belief base
+     * @return
+     */
+    @Override
+    public PersistentBeliefBase clone(){
+        return new PersistentBeliefBase(this);
+    }
+}
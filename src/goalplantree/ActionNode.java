@@ -1,6 +1,8 @@
 package goalplantree;
 
 import beliefbase.Condition;
+import beliefbase.ConditionMask;
+import beliefbase.LiteralDictionary;
 
 public class ActionNode extends TreeNode {
 
@@ -20,6 +22,15 @@ public class ActionNode extends TreeNode {
      */
     final private Condition[] postc;
 
+    /**
+     * compiled precondition
+     */
+    private ConditionMask precMask;
+    /**
+     * compiled postcondition
+     */
+    private ConditionMask postcMask;
+
 
     public ActionNode(String id, String type){
         super(id, type);
@@ -73,6 +84,38 @@ public class ActionNode extends TreeNode {
             return this.postc;
     }
 
+    /**
+     * compile the precondition and postcondition of this action against the given dictionary
+     * @param dictionary
+     */
+    public void compile(LiteralDictionary dictionary){
+        this.precMask = new ConditionMask(prec, dictionary);
+        this.postcMask = new ConditionMask(postc, dictionary);
+    }
+
+    /**
+     * get the compiled precondition of this action
+     * @return
+     */
+    public ConditionMask getPrecMask(){
+        if(precMask == null){
+            // not compiled against a forest, the mask falls back to the conditions
+            compile(new LiteralDictionary());
+        }
+        return this.precMask;
+    }
+
+    /**
+     * get the compiled postcondition of this action
+     * @return
+     */
+    public ConditionMask getPostcMask(){
+        if(postcMask == null){
+            compile(new LiteralDictionary());
+        }
+        return this.postcMask;
+    }
+
 
     public String onPrintNode(int num){
         String result = "Action:[type = " + type +
@@ -0,0 +1,400 @@
+package goalplantree;
+
+import beliefbase.ConditionMask;
+import beliefbase.LiteralDictionary;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * the goal-plan trees of all the intentions.
+ *
+ * every node of the forest is given a dense integer id, so that the next step of an intention can be
+ * stored as an int. nodes are numbered breadth first, one tree after another, and the children of a
+ * node (the plans of a goal or the steps of a plan) get consecutive ids.
+ *
+ * the structure of the trees is also compiled into flat arrays indexed by id (kind, parent, children,
+ * successor and condition masks), so that code which only needs to step through the trees can do so
+ * without following pointers or dispatching on the class of each node.
+ *
+ * finally, every goal and action watches the literals mentioned by the preconditions of the moves an
+ * intention has when it is at that node (the plans of the goal, or the action itself), so that after a
+ * postcondition is applied only the intentions whose moves it may have changed need to be checked.
+ */
+public class Forest {
+
+    /**
+     * node kinds
+     */
+    public static final byte GOAL = 0;
+    public static final byte PLAN = 1;
+    public static final byte ACTION = 2;
+
+    /**
+     * the nodes of the forest, indexed by id
+     */
+    final private TreeNode[] nodes;
+
+    /**
+     * the ids of the top-level goals, one per intention
+     */
+    final private int[] roots;
+
+    /**
+     * the kind of each node
+     */
+    final private byte[] kind;
+
+    /**
+     * the id of the parent of each node, -1 for a top-level goal
+     */
+    final private int[] parent;
+
+    /**
+     * the index of the intention (goal-plan tree) each node belongs to
+     */
+    final private int[] tree;
+
+    /**
+     * the id of the first child of each node (the first plan of a goal or the first step of a plan)
+     * and the number of children, the children having consecutive ids
+     */
+    final private int[] firstChild;
+    final private int[] childCount;
+
+    /**
+     * the id of the step that follows each node once it is completed, -1 if its intention is then completed
+     */
+    final private int[] successor;
+
+    /**
+     * the index in masks of the precondition of each plan and action, and of the postcondition of each action, -1 for none
+     */
+    final private int[] prec;
+    final private int[] postc;
+
+    /**
+     * the compiled conditions of the forest
+     */
+    final private ConditionMask[] masks;
+
+    /**
+     * the dictionary all the masks were compiled against, null if they were compiled against different ones
+     */
+    final private LiteralDictionary dictionary;
+
+    /**
+     * the literals watched by each goal and action, as watchWords words per node
+     */
+    final private long[] watchMasks;
+    final private int watchWords;
+
+    /**
+     * the moves of an intention are numbered from slotStart[i] to slotStart[i + 1] - 1
+     */
+    final private int[] slotStart;
+
+    /**
+     * number the nodes of the given goal-plan trees
+     * @param intentions the top-level goals
+     */
+    public Forest(List<TreeNode> intentions){
+        ArrayList<TreeNode> order = new ArrayList<>();
+        roots = new int[intentions.size()];
+
+        for(int i = 0; i < intentions.size(); i++){
+            // breadth first traversal of this tree, the queue being the tail of the order list
+            int head = order.size();
+            roots[i] = number(intentions.get(i), order);
+            while(head < order.size()){
+                TreeNode node = order.get(head++);
+                if(node instanceof GoalNode){
+                    for(PlanNode plan : ((GoalNode) node).getPlans()){
+                        number(plan, order);
+                    }
+                }
+                else if(node instanceof PlanNode){
+                    for(TreeNode step : ((PlanNode) node).getPlanbody()){
+                        number(step, order);
+                    }
+                }
+            }
+        }
+
+        nodes = order.toArray(new TreeNode[0]);
+
+        int n = nodes.length;
+        kind = new byte[n];
+        parent = new int[n];
+        tree = new int[n];
+        firstChild = new int[n];
+        childCount = new int[n];
+        successor = new int[n];
+        prec = new int[n];
+        postc = new int[n];
+        ArrayList<ConditionMask> maskList = new ArrayList<>();
+
+        // a parent is always numbered before its children, so the successor of the parent is known by then
+        int intention = 0;
+        for(int id = 0; id < n; id++){
+            TreeNode node = nodes[id];
+            parent[id] = node.parent == null ? -1 : node.parent.nodeId;
+            // the trees are numbered one after another, so the top-level goals come in the order of the intentions
+            tree[id] = parent[id] < 0 ? intention++ : tree[parent[id]];
+            firstChild[id] = -1;
+            prec[id] = -1;
+            postc[id] = -1;
+
+            if(node instanceof GoalNode){
+                kind[id] = GOAL;
+                PlanNode[] plans = ((GoalNode) node).getPlans();
+                childCount[id] = plans.length;
+                if(plans.length > 0){
+                    firstChild[id] = plans[0].nodeId;
+                }
+            }
+            else if(node instanceof PlanNode){
+                kind[id] = PLAN;
+                TreeNode[] body = ((PlanNode) node).getPlanbody();
+                childCount[id] = body.length;
+                if(body.length > 0){
+                    firstChild[id] = body[0].nodeId;
+                }
+                prec[id] = maskList.size();
+                maskList.add(((PlanNode) node).getPrecMask());
+            }
+            else{
+                kind[id] = ACTION;
+                prec[id] = maskList.size();
+                maskList.add(((ActionNode) node).getPrecMask());
+                postc[id] = maskList.size();
+                maskList.add(((ActionNode) node).getPostcMask());
+            }
+
+            // the next step in the same plan, otherwise whatever follows the completion of the parent
+            if(node.next != null){
+                successor[id] = node.next.nodeId;
+            }
+            else{
+                successor[id] = parent[id] < 0 ? -1 : successor[parent[id]];
+            }
+        }
+
+        masks = maskList.toArray(new ConditionMask[0]);
+
+        LiteralDictionary shared = masks.length > 0 ? masks[0].getDictionary() : null;
+        for(ConditionMask mask : masks){
+            if(mask.getDictionary() != shared){
+                shared = null;
+                break;
+            }
+        }
+        dictionary = shared;
+
+        // the literals watched by each node
+        int literals = 0;
+        for(int id = 0; id < n; id++){
+            if(prec[id] >= 0){
+                int[] mentioned = masks[prec[id]].getLiterals();
+                if(mentioned.length > 0){
+                    literals = Math.max(literals, mentioned[mentioned.length - 1] + 1);
+                }
+            }
+        }
+        watchWords = (literals + 63) / 64;
+        watchMasks = new long[n * watchWords];
+        for(int id = 0; id < n; id++){
+            // a plan is watched by its goal, an action by itself
+            int watcher = kind[id] == PLAN ? parent[id] : kind[id] == ACTION ? id : -1;
+            if(watcher >= 0){
+                for(int literal : masks[prec[id]].getLiterals()){
+                    watchMasks[watcher * watchWords + literal / 64] |= 1L << literal;
+                }
+            }
+        }
+
+        // each intention needs as many move slots as the goal with the most plans in its tree
+        slotStart = new int[roots.length + 1];
+        for(int id = 0; id < n; id++){
+            int move = (kind[id] == PLAN) ? id - firstChild[parent[id]] : 0;
+            slotStart[tree[id] + 1] = Math.max(slotStart[tree[id] + 1], move + 1);
+        }
+        for(int i = 0; i < roots.length; i++){
+            slotStart[i + 1] += slotStart[i];
+        }
+
+        // store the successors in the nodes, so that nextIstep is a single load
+        for(int id = 0; id < n; id++){
+            nodes[id].successor = getNode(successor[id]);
+            nodes[id].successorResolved = true;
+        }
+    }
+
+    /**
+     * give the next id to the given node
+     * @return the id of the node
+     */
+    private static int number(TreeNode node, ArrayList<TreeNode> order){
+        node.nodeId = order.size();
+        order.add(node);
+        return node.nodeId;
+    }
+
+    /**
+     * @return the number of nodes in this forest
+     */
+    public int size(){
+        return nodes.length;
+    }
+
+    /**
+     * @param id the id of a node, -1 for none
+     * @return the node with the given id, null if the id is -1
+     */
+    public TreeNode getNode(int id){
+        return id < 0 ? null : nodes[id];
+    }
+
+    /**
+     * @return the number of goal-plan trees in this forest
+     */
+    public int getNumIntentions(){
+        return roots.length;
+    }
+
+    /**
+     * @param intention the index of an intention
+     * @return the id of the top-level goal of the given intention
+     */
+    public int getRoot(int intention){
+        return roots[intention];
+    }
+
+    /**
+     * @return the top-level goals
+     */
+    public ArrayList<TreeNode> getIntentions(){
+        ArrayList<TreeNode> intentions = new ArrayList<>(roots.length);
+        for(int i = 0; i < roots.length; i++){
+            intentions.add(nodes[roots[i]]);
+        }
+        return intentions;
+    }
+
+    /**
+     * @param id the id of a node
+     * @return the kind of the node: GOAL, PLAN or ACTION
+     */
+    public byte getKind(int id){
+        return kind[id];
+    }
+
+    /**
+     * @param id the id of a node
+     * @return the id of the parent of the node, -1 if it is a top-level goal
+     */
+    public int getParent(int id){
+        return parent[id];
+    }
+
+    /**
+     * @param id the id of a goal or plan
+     * @return the id of the first plan of the goal or the first step of the plan, -1 if there is none
+     */
+    public int getFirstChild(int id){
+        return firstChild[id];
+    }
+
+    /**
+     * @param id the id of a goal or plan
+     * @return the number of plans of the goal or steps of the plan
+     */
+    public int getChildCount(int id){
+        return childCount[id];
+    }
+
+    /**
+     * @param id the id of a node
+     * @return the id of the step of its intention that follows the node once it is completed, -1 if the intention is then completed
+     */
+    public int getSuccessor(int id){
+        return successor[id];
+    }
+
+    /**
+     * @param id the id of a plan or action
+     * @return the index of its precondition, -1 for a goal
+     */
+    public int getPrec(int id){
+        return prec[id];
+    }
+
+    /**
+     * @param id the id of an action
+     * @return the index of its postcondition, -1 for a goal or plan
+     */
+    public int getPostc(int id){
+        return postc[id];
+    }
+
+    /**
+     * @param index the index of a compiled condition
+     * @return the condition mask with the given index
+     */
+    public ConditionMask getMask(int index){
+        return masks[index];
+    }
+
+    /**
+     * @return the number of compiled conditions
+     */
+    public int getNumMasks(){
+        return masks.length;
+    }
+
+    /**
+     * @param id the id of a node
+     * @return the index of the intention the node belongs to
+     */
+    public int getTree(int id){
+        return tree[id];
+    }
+
+    /**
+     * @return the dictionary all the conditions of this forest were compiled against, null if there is no single one
+     */
+    public LiteralDictionary getDictionary(){
+        return dictionary;
+    }
+
+    /**
+     * @return the number of words of the literal mask watched by each node
+     */
+    public int getWatchWords(){
+        return watchWords;
+    }
+
+    /**
+     * @param id the id of a goal or action
+     * @param word the index of a word
+     * @return the given word of the mask of the literals mentioned by the preconditions of the moves at the node
+     */
+    public long getWatchWord(int id, int word){
+        return watchMasks[id * watchWords + word];
+    }
+
+    /**
+     * @return the number of move slots of all the intentions
+     */
+    public int getNumSlots(){
+        return slotStart[roots.length];
+    }
+
+    /**
+     * @param intention the index of an intention
+     * @return the first move slot of the intention
+     */
+    public int getSlotStart(int intention){
+        return slotStart[intention];
+    }
+}
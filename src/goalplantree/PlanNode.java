@@ -1,6 +1,8 @@
 package goalplantree;
 
 import beliefbase.Condition;
+import beliefbase.ConditionMask;
+import beliefbase.LiteralDictionary;
 
 import java.util.ArrayList;
 
@@ -11,6 +13,11 @@ public class PlanNode extends TreeNode {
      */
     final private Condition[] prec;
 
+    /**
+     * compiled precondition
+     */
+    private ConditionMask precMask;
+
     /**
      * incondition
      */
@@ -86,6 +93,25 @@ public class PlanNode extends TreeNode {
         return this.prec;
     }
 
+    /**
+     * compile the precondition of this plan against the given dictionary
+     * @param dictionary
+     */
+    public void compile(LiteralDictionary dictionary){
+        this.precMask = new ConditionMask(prec, dictionary);
+    }
+
+    /**
+     * @return the compiled precondition of this plan
+     */
+    public ConditionMask getPrecMask(){
+        if(precMask == null){
+            // not compiled against a forest, the mask falls back to the conditions
+            compile(new LiteralDictionary());
+        }
+        return this.precMask;
+    }
+
     public Condition[] getInc(){
         return this.inc;
     }
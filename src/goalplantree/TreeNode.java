@@ -53,6 +53,17 @@ public abstract class TreeNode {
      */
     protected TreeNode next;
 
+    /**
+     * the step of the intention that follows this node once it is completed, resolved when the forest is built
+     */
+    TreeNode successor;
+    boolean successorResolved = false;
+
+    /**
+     * id of this node in its forest, -1 if it does not belong to a forest
+     */
+    int nodeId = -1;
+
     /**
      * indentation
      */
@@ -81,6 +92,13 @@ public abstract class TreeNode {
         return this.id;
     }
 
+    /**
+     * @return the id of this node in its forest, -1 if it does not belong to a forest
+     */
+    public int getNodeId(){
+        return this.nodeId;
+    }
+
     /**
      * @return the type name of this goal/plan/action
      */
@@ -138,20 +156,19 @@ public abstract class TreeNode {
      */
     public TreeNode nextIstep()
     {
-        // if it is not the last step in a plan
-        if(next != null) {
-            return next;
+        // precomputed by the forest
+        if(successorResolved){
+            return successor;
         }
-        // if it is
-        else{
-            // if it is the top-level goal
-            if(parent == null) {
-                return null;   
-            } else {
-                // get the goal it is going to achieve
-                GoalNode gn = (GoalNode)parent.getParent();
-                return gn.nextIstep();
+        // otherwise climb until a plan has a step left, or the top-level goal is reached
+        TreeNode node = this;
+        while(node.next == null){
+            if(node.parent == null){
+                return null;
             }
+            // the goal the plan of this node is going to achieve
+            node = node.parent.getParent();
         }
+        return node.next;
     }
 }
@@ -1,6 +1,6 @@
 package scheduler;
 import beliefbase.BeliefBase;
-import beliefbase.Condition;
+import beliefbase.ConditionMask;
 import goalplantree.ActionNode;
 import goalplantree.GoalNode;
 import goalplantree.PlanNode;
@@ -19,7 +19,7 @@ public class BoltzmannCScheduler extends Scheduler {
 	public double temperature;
 	
     private BeliefBase beliefs;
-    private ArrayList<TreeNode> intentions;
+    private State state;
     private double[] coverage;
     private CoverageType coverage_type;
     private boolean verbose;
@@ -48,8 +48,8 @@ public class BoltzmannCScheduler extends Scheduler {
     public void update(State state)
     {
         this.beliefs = state.getBeliefBase();
-        this.intentions = state.getIntentions();
-        this.coverage = new double[intentions.size()];
+        this.state = state;
+        this.coverage = new double[state.getTotalNumberOfGPTs()];
     }
     
 	@Override
@@ -70,9 +70,9 @@ public class BoltzmannCScheduler extends Scheduler {
 		}
 		
 		int pChoice = -1;
-		if ((iChoice != -1) && (intentions.get(iChoice) instanceof GoalNode))
+		if ((iChoice != -1) && (state.getIntention(iChoice) instanceof GoalNode))
 		{
-			GoalNode goal = (GoalNode) intentions.get(index);
+			GoalNode goal = (GoalNode) state.getIntention(index);
 			Log.info(goal.getType(), verbose);
             
             PlanNode[] plans = goal.getPlans();
@@ -80,7 +80,7 @@ public class BoltzmannCScheduler extends Scheduler {
             ArrayList<Integer> possible_plans = new ArrayList<Integer>();
             for(int i = 0; i < plans.length; i++)
             {
-                Condition[] prec = plans[i].getPrec();
+                ConditionMask prec = plans[i].getPrecMask();
                 if(beliefs.evaluate(prec))
                 {
                 	possible_plans.add(i);
@@ -114,7 +114,7 @@ public class BoltzmannCScheduler extends Scheduler {
         for(int i = 0; i < coverage.length; i++)
         {
             // if this intention is finished
-            if(intentions.get(i) == null)
+            if(state.isCompleted(i))
             {
                 coverage[i] = 0;
             }
@@ -123,7 +123,7 @@ public class BoltzmannCScheduler extends Scheduler {
             {
                 double result = 1;
 
-                TreeNode current = intentions.get(i);
+                TreeNode current = state.getIntention(i);
 
                 while (current != null)
                 {
@@ -133,7 +133,7 @@ public class BoltzmannCScheduler extends Scheduler {
                         result = result * goal.getEc();
                     }
 
-                    current = nextCoverage(current);
+                    current = current.nextIstep();
                 }
 
                 coverage[i] = result;
@@ -147,30 +147,6 @@ public class BoltzmannCScheduler extends Scheduler {
 
     }
 
-    private TreeNode nextCoverage(TreeNode node)
-    {
-        // if there is another step in the same plan
-        if(node.getNext() != null)
-        {
-            return node.getNext();
-        }
-        else
-        {
-            // if it is the top-level goal
-            if(node.getParent() == null)
-            {
-                return null;
-            }
-            else
-            {
-                // if it is the last step in a plan
-                TreeNode goal = node.getParent().getParent();// get the parent node it is going to achieve
-                return nextCoverage(goal);
-            }
-        }
-    }
-
-
     public double[] getCoverage()
     {
         return this.coverage;
@@ -185,7 +161,7 @@ public class BoltzmannCScheduler extends Scheduler {
     public int getNextStepC0()
     {
         // if there is an intention we are currently focusing and it is progressable, then return this index
-        if(index >= 0 && index < intentions.size() && intentions.get(index) != null && progressable(index))
+        if(index >= 0 && index < state.getTotalNumberOfGPTs() && !state.isCompleted(index) && progressable(index))
         {
             return index;
         }
@@ -255,16 +231,16 @@ public class BoltzmannCScheduler extends Scheduler {
 
     public boolean progressable(int num)
     {
-        if(intentions.get(num) == null)
+        if(state.isCompleted(num))
         {
             return false;
         }
         else
         {
-            if(intentions.get(num) instanceof ActionNode)
+            if(state.getIntention(num) instanceof ActionNode)
             {
-                ActionNode action = (ActionNode) intentions.get(num);
-                Condition[] prec = action.getPrec();
+                ActionNode action = (ActionNode) state.getIntention(num);
+                ConditionMask prec = action.getPrecMask();
                 
                 // if its precondition holds
                 if(beliefs.evaluate(prec))
@@ -279,13 +255,13 @@ public class BoltzmannCScheduler extends Scheduler {
             }
             else
             {
-                GoalNode goal = (GoalNode) intentions.get(num);
+                GoalNode goal = (GoalNode) state.getIntention(num);
                 PlanNode[] plans = goal.getPlans();
                 
                 // check if there is a plan can be applied
                 for(int i = 0; i < plans.length; i++)
                 {
-                    Condition[] prec = plans[i].getPrec();
+                    ConditionMask prec = plans[i].getPrecMask();
                     // if one plan can be applied, return true
                     if(beliefs.evaluate(prec))
                     {
@@ -1,6 +1,6 @@
 package scheduler;
 import beliefbase.BeliefBase;
-import beliefbase.Condition;
+import beliefbase.ConditionMask;
 import goalplantree.ActionNode;
 import goalplantree.GoalNode;
 import goalplantree.PlanNode;
@@ -18,7 +18,7 @@ public class CScheduler extends Scheduler {
     };
     
     private BeliefBase beliefs;
-    private ArrayList<TreeNode> intentions;
+    private State state;
     private double[] coverage;
     private CoverageType coverage_type;
     private boolean verbose;
@@ -39,8 +39,8 @@ public class CScheduler extends Scheduler {
     public void update(State state)
     {
         this.beliefs = state.getBeliefBase();
-        this.intentions = state.getIntentions();
-        this.coverage = new double[intentions.size()];
+        this.state = state;
+        this.coverage = new double[state.getTotalNumberOfGPTs()];
     }
     
 	@Override
@@ -67,9 +67,9 @@ public class CScheduler extends Scheduler {
 		}
 		
 		int pChoice = -1;
-		if ((iChoice != -1) && (intentions.get(iChoice) instanceof GoalNode))
+		if ((iChoice != -1) && (state.getIntention(iChoice) instanceof GoalNode))
 		{
-			GoalNode goal = (GoalNode) intentions.get(iChoice);
+			GoalNode goal = (GoalNode) state.getIntention(iChoice);
 			Log.info(goal.getType(), verbose);
             
             PlanNode[] plans = goal.getPlans();
@@ -77,7 +77,7 @@ public class CScheduler extends Scheduler {
             // Find the first available plan
             for(int i = 0; i < plans.length; i++)
             {
-                Condition[] prec = plans[i].getPrec();
+                ConditionMask prec = plans[i].getPrecMask();
                 if(beliefs.evaluate(prec))
                 {
                 	pChoice = i;
@@ -97,7 +97,7 @@ public class CScheduler extends Scheduler {
         for(int i = 0; i < coverage.length; i++)
         {
             // if this intention is finished
-            if(intentions.get(i) == null)
+            if(state.isCompleted(i))
             {
                 coverage[i] = 0;
             }
@@ -106,7 +106,7 @@ public class CScheduler extends Scheduler {
             {
                 double result = 1;
 
-                TreeNode current = intentions.get(i);
+                TreeNode current = state.getIntention(i);
 
                 while (current != null)
                 {
@@ -116,7 +116,7 @@ public class CScheduler extends Scheduler {
                         result = result * goal.getEc();
                     }
 
-                    current = nextCoverage(current);
+                    current = current.nextIstep();
                 }
 
                 coverage[i] = result;
@@ -130,30 +130,6 @@ public class CScheduler extends Scheduler {
 
     }
 
-    private TreeNode nextCoverage(TreeNode node)
-    {
-        // if there is another step in the same plan
-        if(node.getNext() != null)
-        {
-            return node.getNext();
-        }
-        else
-        {
-            // if it is the top-level goal
-            if(node.getParent() == null)
-            {
-                return null;
-            }
-            else
-            {
-                // if it is the last step in a plan
-                TreeNode goal = node.getParent().getParent();// get the parent node it is going to achieve
-                return nextCoverage(goal);
-            }
-        }
-    }
-
-
     public double[] getCoverage()
     {
         return this.coverage;
@@ -168,7 +144,7 @@ public class CScheduler extends Scheduler {
     public int getNextStepC0()
     {
         // if there is an intention we are currently focusing and it is progressable, then return this index
-        if(index >= 0 && index < intentions.size() && intentions.get(index) != null && progressable(index))
+        if(index >= 0 && index < state.getTotalNumberOfGPTs() && !state.isCompleted(index) && progressable(index))
         {
             return index;
         }
@@ -244,16 +220,16 @@ public class CScheduler extends Scheduler {
 
     public boolean progressable(int num)
     {
-        if(intentions.get(num) == null)
+        if(state.isCompleted(num))
         {
             return false;
         }
         else
         {
-            if(intentions.get(num) instanceof ActionNode)
+            if(state.getIntention(num) instanceof ActionNode)
             {
-                ActionNode action = (ActionNode) intentions.get(num);
-                Condition[] prec = action.getPrec();
+                ActionNode action = (ActionNode) state.getIntention(num);
+                ConditionMask prec = action.getPrecMask();
                 
                 // if its precondition holds
                 if(beliefs.evaluate(prec))
@@ -268,13 +244,13 @@ public class CScheduler extends Scheduler {
             }
             else
             {
-                GoalNode goal = (GoalNode) intentions.get(num);
+                GoalNode goal = (GoalNode) state.getIntention(num);
                 PlanNode[] plans = goal.getPlans();
                 
                 // check if there is a plan can be applied
                 for(int i = 0; i < plans.length; i++)
                 {
-                    Condition[] prec = plans[i].getPrec();
+                    ConditionMask prec = plans[i].getPrecMask();
                     // if one plan can be applied, return true
                     if(beliefs.evaluate(prec))
                     {
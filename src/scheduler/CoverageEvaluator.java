@@ -0,0 +1,94 @@
+package scheduler;
+
+import java.util.Arrays;
+
+import goalplantree.Forest;
+import goalplantree.GoalNode;
+
+/**
+ * Scores a state that is not the end of a game, to stop a rollout early. Each intention that has not been
+ * completed counts as the chance of completing it, taken as the product of the extended coverages of the goals it
+ * still has to achieve (as CScheduler calculates it), and each completed intention counts as 1. The agents then
+ * value these expected completions as they value completed intentions at the end of a game.
+ *
+ * The extended coverages are those set by CoverageCalculator. If they have not been calculated, the intentions
+ * that have not been completed count as 0, and the score is the one the state would have if the game ended there.
+ *
+ * An evaluator caches the coverage of the nodes of the last forest it scored, so it must only be used by one
+ * thread at a time.
+ */
+public class CoverageEvaluator {
+
+	private final MatchSpec spec;
+
+	// the coverage of the intention from each node of the forest, -1 until calculated
+	private Forest forest;
+	private double[] coverage;
+
+	public CoverageEvaluator(MatchSpec spec)
+	{
+		this.spec = spec;
+	}
+
+	/**
+	 * @param scores where to store the score of each agent
+	 * @return scores, holding the expected score of each agent in the given state
+	 */
+	public double[] evaluate(State state, double[] scores)
+	{
+		for (int a = 0; a < spec.numAgents; a++)
+		{
+			double score = 0;
+
+			for (int owner = 0; owner < spec.numAgents; owner++)
+			{
+				if (spec.value[a][owner] != 0.0)
+				{
+					score += spec.value[a][owner] * getExpectedCompletions(state, spec.counted[a][owner]);
+				}
+			}
+
+			scores[a] = score;
+		}
+		return scores;
+	}
+
+	/**
+	 * @param intention_mask bit i is set if intention i is counted
+	 * @return the expected number of the counted intentions that will be completed
+	 */
+	private double getExpectedCompletions(State state, long[] intention_mask)
+	{
+		double expected = 0;
+
+		for (int w = 0; w < intention_mask.length; w++)
+		{
+			for (long bits = intention_mask[w]; bits != 0; bits &= bits - 1)
+			{
+				int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+				expected += state.isCompleted(i)? 1.0 : getCoverage(state.forest, state.getIntentionId(i));
+			}
+		}
+		return expected;
+	}
+
+	/**
+	 * @return the product of the extended coverages of the goals left to achieve from the given node
+	 */
+	private double getCoverage(Forest forest, int id)
+	{
+		if (this.forest != forest)
+		{
+			this.forest = forest;
+			this.coverage = new double[forest.size()];
+			Arrays.fill(coverage, -1);
+		}
+		if (coverage[id] < 0)
+		{
+			int successor = forest.getSuccessor(id);
+			double ec = (forest.getKind(id) == Forest.GOAL)? ((GoalNode) forest.getNode(id)).getEc() : 1.0;
+			coverage[id] = ec * ((successor < 0)? 1.0 : getCoverage(forest, successor));
+		}
+		return coverage[id];
+	}
+}
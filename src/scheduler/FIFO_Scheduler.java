@@ -2,7 +2,7 @@ package scheduler;
 
 public class FIFO_Scheduler extends Scheduler {
 
-	public MCTS_Node rootNode;
+	private final MoveGenerator moves = new MoveGenerator();
 	
 	private int previousIChoice;
 	private int previousPChoice;
@@ -23,11 +23,7 @@ public class FIFO_Scheduler extends Scheduler {
     
     public Decision getDecision(State state)
     {
-    	this.rootNode = new MCTS_Node(state, match);
-    	
-    	this.rootNode.expand(available_intentions[agent_num], false);
-    	
-    	boolean playerMustPass = rootNode.children.size() == 0;
+    	boolean playerMustPass = moves.generate(state, owned_intentions[agent_num]) == 0;
     	
     	if (playerMustPass)
     	{
@@ -37,30 +33,22 @@ public class FIFO_Scheduler extends Scheduler {
     	}
     	
     	// Stick with previous intention and plan if possible
-    	for (MCTS_Node child : rootNode.children)
-    	{
-    		if (child.intentionChoice == previousIChoice && child.planChoice == previousPChoice)
-    		{
-        		previousIChoice = child.intentionChoice;
-        		previousPChoice = child.planChoice;
-        		return new Decision(previousIChoice, previousPChoice, false);
-    		}
-    	}
+    	int move = moves.indexOf(previousIChoice, previousPChoice);
     	
     	// At least stick with previous intention if not possible to stick with previous plan
-    	for (MCTS_Node child : rootNode.children)
+    	if (move == -1)
     	{
-    		if (child.intentionChoice == previousIChoice)
-    		{
-        		previousIChoice = child.intentionChoice;
-        		previousPChoice = child.planChoice;
-    			return new Decision(previousIChoice, previousPChoice, false);
-    		}
+    		move = moves.indexOf(previousIChoice);
     	}
     	
     	// Worst case, return the first available intention and plan
-		previousIChoice = rootNode.children.get(0).intentionChoice;
-		previousPChoice = rootNode.children.get(0).planChoice;
+    	if (move == -1)
+    	{
+    		move = 0;
+    	}
+    	
+		previousIChoice = moves.getIntentionChoice(move);
+		previousPChoice = moves.getPlanChoice(move);
 		return new Decision(previousIChoice, previousPChoice, false);
     }
 }
@@ -1,9 +1,22 @@
 package scheduler;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
 
+import beliefbase.BeliefBase;
+import beliefbase.PersistentBeliefBase;
 import util.Log;
 
 public class MCTS_Scheduler extends Scheduler {
@@ -15,25 +28,111 @@ public class MCTS_Scheduler extends Scheduler {
     	PARTIALLY_AWARE
     }
     
+    /**
+     * How the root children of parallel search trees are merged into a decision
+     */
+    public enum RootMerge
+    {
+    	SUM_VISITS,    // sum the visits and values of each root child over the trees, then choose as for a single tree
+    	MAJORITY_VOTE  // every tree votes for its best root child, ties are broken by the summed values
+    }
+    
 	public VisionType vision_type;
 	
-	public MCTS_Node rootNode;
-	
 	public int alpha, beta;
 	public double c, rollout_stochasticity, assumed_politeness_of_other_agent;
-	private Scheduler rollout_schedulers[];
 	public boolean[] gpt_visible;
 	
-    // random
-    static Random rm = new Random();
-    
+	// number of independent search trees, each searched by its own thread (root parallelisation)
+	public int threads;
+	public RootMerge root_merge;
+	
+	// number of threads sharing each tree and its alpha iterations (tree parallelisation), and the value of each
+	// rollout a thread has yet to back-propagate through a node, which steers the other threads to other branches
+	public int workers;
+	public double virtual_loss;
+	
+	// number of threads sharing the beta rollouts of each iteration of a worker (leaf parallelisation), run on the
+	// common fork-join pool
+	public int rollout_threads;
+	
+	// number of steps after which a rollout is stopped and its state scored by the expected completions of the
+	// intentions (from their coverage) rather than played to the end, 0 to play every rollout to the end. A small
+	// depth makes rollouts cheaper but biased towards the coverage estimate.
+	public int rollout_depth;
+	
+	// most nodes with a state that each tree keeps, 0 for no limit. Beyond it, the least visited subtrees are
+	// collapsed into leaves that keep their statistics. A node holds a state (intention cursors, caches and the
+	// changes of its belief base), so the limit bounds the heap used by each tree.
+	public int max_nodes;
+	
+	// half-width of the confidence interval (at rollout_z standard errors) of the mean score of a leaf at which its
+	// rollouts stop, the rollouts left being given to further iterations, 0 to always make beta rollouts per
+	// iteration. The interval is first checked after rollout_min rollouts, so leaves whose rollouts all end alike
+	// cost rollout_min rollouts instead of beta.
+	public double rollout_tolerance;
+	public double rollout_z;
+	public int rollout_min;
+	
+	// keep the trees between decisions, searching on from the node that matches the new state if there is one
+	public boolean reuse_subtree;
+	
+	// number of slots of the transposition table of each tree, through which the nodes of equal states reached by
+	// different orders of the same moves share their statistics and children, 0 for a plain tree
+	public int transposition_table_size;
+	
+	// time allowed for each decision in nanoseconds, 0 for no limit. The search stops at the first of the deadline
+	// and the end of the alpha iterations, so alpha can be set to Integer.MAX_VALUE to search for a fixed time only.
+	public long time_limit_nanos;
+	
+	// spreads a per-match budget of iterations over the decisions instead of spending alpha on each, null for alpha.
+	// With a budget, a decision with at most one move other than passing is taken without searching.
+	public SearchBudget budget;
+	
+	// the deadline of the search in progress, and whether it has been cancelled
+	private boolean hasDeadline;
+	private long deadline;
+	private volatile boolean cancelled;
+	
+	// the intentions each agent's moves are searched for in the tree: those it owns that this scheduler can see
+	private long[][] movable;
+	private final MoveGenerator moves = new MoveGenerator();
+	
+	// what the rollouts need to know about the match, shared by the rollout kernels of all the trees
+	private MatchSpec rolloutSpec;
+	
+	// the search trees, with the threads that search them when there is more than one
+	private SearchTree[] trees;
+	private ExecutorService pool;
+	
+	// keep searching below the chosen move in the background until the next decision, which then reuses the
+	// subtree the other agents enter (needs reuse_subtree). Pondering takes at most alpha iterations per tree, or
+	// time_limit_nanos if it is set, so that it ends even if the scheduler is not asked for another decision, and
+	// it is stopped when the match ends.
+	public boolean ponder;
+	private List<Future<Void>> pondering;
+	
     // a very small value used for breaking the tie and dividing by 0
     static final double epsilon = 1e-6;
+    
+    // takes one from a count of iterations left, unless there are none
+    private static final IntUnaryOperator CLAIM = n -> (n > 0)? n - 1 : n;
 	
-    // statistics
+    // statistics of the last decision
     public int nRollouts;
+    public int nIterations;
     
     public MCTS_Scheduler(VisionType vision_type, int alpha, int beta, double c, double rollout_stochasticity, double assumed_politeness_of_other_agent)
+    {
+    	this(vision_type, alpha, beta, c, rollout_stochasticity, assumed_politeness_of_other_agent, 1, RootMerge.SUM_VISITS);
+    }
+    
+    /**
+     * @param threads number of search trees, searched in parallel, each with alpha iterations
+     * @param root_merge how the root children of the trees are merged
+     */
+    public MCTS_Scheduler(VisionType vision_type, int alpha, int beta, double c, double rollout_stochasticity, double assumed_politeness_of_other_agent,
+    	int threads, RootMerge root_merge)
     {
     	this.vision_type = vision_type;
     	this.alpha = alpha;
@@ -41,17 +140,41 @@ public class MCTS_Scheduler extends Scheduler {
     	this.c = c;
     	this.rollout_stochasticity = rollout_stochasticity;
     	this.assumed_politeness_of_other_agent = assumed_politeness_of_other_agent;
+    	this.threads = threads;
+    	this.root_merge = root_merge;
+    	this.workers = 1;
+    	this.virtual_loss = 1.0;
+    	this.rollout_threads = 1;
+    	this.rollout_z = 1.96;
+    	this.rollout_min = 4;
     }
     
 	@Override
 	public void reset()
 	{
-		// Nothing to reset for this scheduler
+		// Forget the trees of the previous match
+		stopPondering();
+		trees = null;
+		
+		if (budget != null)
+		{
+			budget.startMatch();
+		}
+	}
+    
+	/**
+	 * Stop pondering below the move that ended the match
+	 */
+	@Override
+	public void endMatch()
+	{
+		stopPondering();
 	}
     
     @Override
     public void loadMatchDetails(Match match, int agent_num, boolean mirror_match)
     {
+    	stopPondering();
     	super.loadMatchDetails(match, agent_num, mirror_match);
     	
 		this.gpt_visible = new boolean[match.numGoalPlanTrees];
@@ -92,188 +215,946 @@ public class MCTS_Scheduler extends Scheduler {
 			}
 		}
 		
-    	this.rollout_schedulers = new Scheduler[match.numAgents];
-    	for (int i = 0; i < match.numAgents; i++)
+		// Every intention this scheduler can see counts towards its score
+		this.scored_intentions = State.toMask(gpt_visible);
+		
+    	// The rollout players can only see the intentions this scheduler can see. This scheduler scores the
+    	// intentions it can see by its alliances, and assumes the other agents score them as 1 for their own
+    	// intentions and assumed_politeness_of_other_agent for this scheduler's.
+    	long[][] movable = new long[match.numAgents][];
+    	long[][] scored = new long[match.numAgents][];
+    	double[][] value = new double[match.numAgents][match.numAgents];
+    	for (int agentNum = 0; agentNum < match.numAgents; agentNum++)
     	{
-    		this.rollout_schedulers[i] = new Stochastic_FIFO_Scheduler(rollout_stochasticity, gpt_visible);
+    		movable[agentNum] = owned_intentions[agentNum].clone();
+    		for (int w = 0; w < movable[agentNum].length; w++)
+    		{
+    			movable[agentNum][w] &= scored_intentions[w];
+    		}
+    		scored[agentNum] = scored_intentions;
+    		
+    		for (int owner = 0; owner < match.numAgents; owner++)
+    		{
+    			if (agentNum == agent_num)
+    			{
+    				value[agentNum][owner] = allianceMatrix[agent_num][owner];
+    			}
+    			else
+    			{
+    				value[agentNum][owner] = (owner == agent_num)? assumed_politeness_of_other_agent : 1.0;
+    			}
+    		}
     	}
+    	
+    	this.rolloutSpec = new MatchSpec(match.numGoalPlanTrees, movable, owned_intentions, scored, value,
+    		rollout_stochasticity, Match.MAX_CONSECUTIVE_PASSES);
+    	this.movable = movable;
+    	this.trees = null;
     }
     
     public Decision getDecision(State state)
     {
-    	rootNode = new MCTS_Node(state, match);
+    	return getDecision(state, time_limit_nanos > 0, System.nanoTime() + time_limit_nanos);
+    }
+    
+    /**
+     * Search until the given deadline, or until the alpha iterations have been made if that comes first. The
+     * deadline is checked between the iterations of each worker, so every worker makes at least one iteration.
+     * @param deadline a System.nanoTime() value
+     * @return the best root child found so far, with the number of iterations and rollouts made
+     */
+    public SearchDecision getDecision(State state, long deadline)
+    {
+    	return getDecision(state, true, deadline);
+    }
+    
+    /**
+     * Stop the search in progress at the end of the current iterations, as if its deadline had passed
+     */
+    public void cancel()
+    {
+    	cancelled = true;
+    }
+    
+    private SearchDecision getDecision(State state, boolean hasDeadline, long deadline)
+    {
+    	stopPondering();
+    	
+    	long startTime = System.nanoTime();
+    	this.hasDeadline = hasDeadline;
+    	this.deadline = deadline;
+    	this.cancelled = false;
+    	
+    	int share = 0;
+    	int limit = alpha;
+    	if (budget != null)
+    	{
+    		int numMoves = moves.generate(state, movable[state.playerTurn]);
+    		
+    		if (numMoves <= 1)
+    		{
+    			// Nothing to search: the only move (or passing, if there is none)
+    			int iChoice = (numMoves == 0)? -1 : moves.getIntentionChoice(0);
+    			int pChoice = (numMoves == 0)? -1 : moves.getPlanChoice(0);
+    			nRollouts = 0;
+    			nIterations = 0;
+    			Log.info("Intention choice: " + iChoice + ", plan choice: " + pChoice + " (only move)");
+    			return new SearchDecision(iChoice, pChoice, (numMoves == 0), 0, 0, System.nanoTime() - startTime);
+    		}
+    		
+    		share = budget.allocate(state, owned_intentions[agent_num], numMoves);
+    		limit = budget.getLimit(share);
+    	}
+    	
+    	if (trees == null || trees.length != threads || trees[0].workers.length != workers
+    		|| trees[0].workers[0].lanes.length != rollout_threads || trees[0].tableSize != transposition_table_size)
+    	{
+    		trees = new SearchTree[threads];
+    		for (int t = 0; t < threads; t++)
+    		{
+    			trees[t] = new SearchTree(workers);
+    		}
+    	}
+    	
+    	// Every tree searches on from the node of its previous search that matches the state, and the rest of the
+    	// tree is dropped. Otherwise it starts again from its own copy of the state, the tree nodes sharing the
+    	// unchanged parts of their belief bases through a persistent trie.
+    	for (SearchTree tree : trees)
+    	{
+    		NodePool nodes = tree.nodes;
+    		int reused = (reuse_subtree && tree.root >= 0)? tree.find(state) : -1;
+    		if (reused < 0)
+    		{
+    			tree.root = nodes.reset(new State(state, new PersistentBeliefBase(state.beliefs)));
+    		}
+    		else if (max_nodes <= 0)
+    		{
+    			// The nodes left behind by the new root are dropped from the pool and the table, so that nothing
+    			// holds on to them
+    			tree.root = nodes.compact(reused);
+    		}
+    		else
+    		{
+    			tree.root = reused;
+    		}
+    		
+    		if (max_nodes > 0)
+    		{
+    			tree.evict(max_nodes * 3 / 4);
+    		}
+    		tree.reusedVisits = nodes.visits[tree.root];
+    	}
+    	
+    	for (SearchTree tree : trees)
+    	{
+    		tree.completed.set(0);
+    		tree.savedRollouts.set(0);
+    	}
+    	
+    	if (budget == null)
+    	{
+    		searchBounded(alpha);
+    	}
+    	else
+    	{
+    		// Search in chunks, checking between them whether a root child dominates. The first chunk is always
+    		// searched, so that the root has children even if the deadline has already passed.
+    		int chunk = Math.max(1, share / 8);
+    		int done = 0;
+    		do
+    		{
+    			searchBounded(Math.min(chunk, limit - done));
+    			done = trees[0].completed.get();
+    			
+    			int numChildren = trees[0].nodes.childCount[trees[0].root];
+    			int[] visits = new int[numChildren];
+    			double[] values = new double[numChildren];
+    			double[] sqValues = new double[numChildren];
+    			mergeRoots(visits, values, sqValues, new int[numChildren]);
+    			
+    			if (budget.isDecided(done, share, visits, values, sqValues))
+    			{
+    				break;
+    			}
+    		}
+    		while (done < limit && !cancelled && !(hasDeadline && System.nanoTime() - deadline >= 0));
+    		budget.spend(done);
+    	}
+    	
     	nRollouts = 0;
+    	nIterations = 0;
+    	for (SearchTree tree : trees)
+    	{
+    		nRollouts += tree.nodes.visits[tree.root] - tree.reusedVisits;
+    		nIterations += tree.completed.get();
+    	}
     	
-    	run(alpha, beta);
+    	long elapsed = System.nanoTime() - startTime;
+        Log.info("MCTS calculation time = " + (elapsed / 1000000) + "ms (" + nIterations + " iterations, " + nRollouts + " rollouts)");
+        
+    	NodePool nodes = trees[0].nodes;
+    	int firstChild = nodes.firstChild[trees[0].root];
+    	int numChildren = nodes.childCount[trees[0].root];
+    	int[] visits = new int[numChildren];
+    	double[] values = new double[numChildren];
+    	int[] votes = new int[numChildren];
+    	mergeRoots(visits, values, new double[numChildren], votes);
     	
         int iChoice = -1;
         int pChoice = -1;
-        int visits = -1;
+        int bestVisits = -1;
+        int bestVotes = -1;
         double average = Double.NEGATIVE_INFINITY;
 
         Log.info("Actions available:");
         
-        for(int i = 0; i < rootNode.children.size(); i++)
+        for(int i = 0; i < numChildren; i++)
         {
-        	Log.info("Intention " + rootNode.children.get(i).getIntentionChoice() + ", plan " + rootNode.children.get(i).getPlanChoice()
-        			+ ": Ave. val = " + (rootNode.children.get(i).totValue[agent_num] / rootNode.children.get(i).nVisits)
-        			+ ", visits = " + rootNode.children.get(i).nVisits);
+        	int child = firstChild + i;
         	
-            if(rootNode.children.get(i).totValue[agent_num] / rootNode.children.get(i).nVisits > average)
+        	Log.info("Intention " + nodes.intentionChoice[child] + ", plan " + nodes.planChoice[child]
+        			+ ": Ave. val = " + (values[i] / visits[i])
+        			+ ", visits = " + visits[i]
+        			+ ((root_merge == RootMerge.MAJORITY_VOTE)? ", votes = " + votes[i] : ""));
+        	
+        	boolean better = values[i] / visits[i] > average;
+        	if (root_merge == RootMerge.MAJORITY_VOTE)
+        	{
+        		better = (votes[i] > bestVotes) || (votes[i] == bestVotes && better);
+        	}
+        	
+            if(better)
             {
-                iChoice = rootNode.children.get(i).getIntentionChoice();
-                pChoice = rootNode.children.get(i).getPlanChoice();
-                visits = rootNode.children.get(i).nVisits;
-                average = rootNode.children.get(i).totValue[agent_num] / rootNode.children.get(i).nVisits;
+                iChoice = nodes.intentionChoice[child];
+                pChoice = nodes.planChoice[child];
+                bestVisits = visits[i];
+                bestVotes = votes[i];
+                average = values[i] / visits[i];
             }
         }
         
         Log.info("Intention choice: " + iChoice + ", plan choice: " + pChoice
-        		+ " (Averaged " + average + " from " + visits + " visits)");
+        		+ " (Averaged " + average + " from " + bestVisits + " visits)");
         
-        return new Decision(iChoice, pChoice, (rootNode.children.size() == 1));
+        if (ponder && reuse_subtree)
+        {
+        	startPondering(iChoice, pChoice);
+        }
+        
+        return new SearchDecision(iChoice, pChoice, (numChildren == 1), nIterations, nRollouts, elapsed);
+    }
+    
+    /**
+     * sum the statistics of the root children over the trees, and count the trees rating each child best among
+     * the children they visited.
+     * The trees expanded their roots from the same state, so their root children come in the same order.
+     */
+    private void mergeRoots(int[] visits, double[] values, double[] sqValues, int[] votes)
+    {
+    	for (SearchTree tree : trees)
+    	{
+    		NodePool nodes = tree.nodes;
+    		int firstChild = nodes.firstChild[tree.root];
+    		int best = -1;
+    		double bestAverage = Double.NEGATIVE_INFINITY;
+    		for (int i = 0; i < visits.length; i++)
+    		{
+    			// A child that was never descended into has no statistics, or none yet, and is not voted for
+    			int child = nodes.target[firstChild + i];
+    			if (child < 0 || nodes.visits[child] == 0)
+    			{
+    				continue;
+    			}
+    			double value = nodes.value[child * nodes.numAgents + agent_num];
+    			visits[i] += nodes.visits[child];
+    			values[i] += value;
+    			sqValues[i] += nodes.sqValue[child * nodes.numAgents + agent_num];
+    			
+    			double average = value / nodes.visits[child];
+    			if (best == -1 || average > bestAverage)
+    			{
+    				best = i;
+    				bestAverage = average;
+    			}
+    		}
+    		
+    		// A tree that visited none of the root children casts no vote
+    		if (best != -1)
+    		{
+    			votes[best]++;
+    		}
+    	}
+    }
+    
+    /**
+     * search all the trees for the given number of iterations each. With a node limit, the search is made in chunks,
+     * after each of which the coldest subtrees of the trees are collapsed.
+     */
+    private void searchBounded(int iterations)
+    {
+    	if (max_nodes <= 0)
+    	{
+    		search(iterations);
+    		return;
+    	}
+    	
+    	// An iteration materializes at most two nodes, so a chunk adds at most a quarter of the limit to the three
+    	// quarters left by the eviction. The first chunk is always searched, so that the root has children even if
+    	// the deadline has already passed.
+    	int chunk = Math.max(1, max_nodes / 8);
+    	int done = 0;
+    	do
+    	{
+    		search(Math.min(chunk, iterations - done));
+    		done += chunk;
+    		
+    		for (SearchTree tree : trees)
+    		{
+    			tree.evict(max_nodes * 3 / 4);
+    		}
+    	}
+    	while (done < iterations && !cancelled && !(hasDeadline && System.nanoTime() - deadline >= 0));
+    }
+    
+    /**
+     * search all the trees for the given number of iterations each, in parallel if there is more than one thread
+     */
+    private void search(int iterations)
+    {
+    	for (SearchTree tree : trees)
+    	{
+    		tree.iterations.set(iterations);
+    	}
+    	
+    	if (trees.length * workers == 1)
+    	{
+    		trees[0].workers[0].run(trees[0]);
+    		return;
+    	}
+    	
+    	try
+    	{
+    		join(getPool().invokeAll(getTasks()));
+    	}
+    	catch (InterruptedException e)
+    	{
+    		Thread.currentThread().interrupt();
+    		throw new IllegalStateException("MCTS search interrupted", e);
+    	}
+    }
+    
+    /**
+     * Make the child of the given move the root of every tree, and search below it in the background
+     */
+    private void startPondering(int iChoice, int pChoice)
+    {
+    	for (SearchTree tree : trees)
+    	{
+    		NodePool nodes = tree.nodes;
+    		int firstChild = nodes.firstChild[tree.root];
+    		nodes.enter();
+    		try
+    		{
+	    		for (int child = firstChild; child < firstChild + nodes.childCount[tree.root]; child++)
+	    		{
+	    			if (nodes.intentionChoice[child] == iChoice && nodes.planChoice[child] == pChoice)
+	    			{
+	    				tree.root = nodes.materialize(tree.root, child);
+	    				break;
+	    			}
+	    		}
+    		}
+    		finally
+    		{
+    			nodes.exit();
+    		}
+    		tree.iterations.set(alpha);
+    		tree.savedRollouts.set(0);
+    	}
+    	
+    	this.hasDeadline = time_limit_nanos > 0;
+    	this.deadline = System.nanoTime() + time_limit_nanos;
+    	this.cancelled = false;
+    	
+    	ExecutorService pool = getPool();
+    	pondering = new ArrayList<>();
+    	for (Callable<Void> task : getTasks())
+    	{
+    		pondering.add(pool.submit(task));
+    	}
     }
     
     /**
-     * @return a node with maximum UCT value
+     * Stop pondering, and wait until the trees are no longer being searched
      */
-    private MCTS_Node select(MCTS_Node currentNode)
+    private void stopPondering()
     {
-        // Initialisation
-        MCTS_Node selected = null;
-        double bestUCT = Double.NEGATIVE_INFINITY;
+    	if (pondering == null)
+    	{
+    		return;
+    	}
+    	
+    	cancelled = true;
+    	try
+    	{
+    		join(pondering);
+    	}
+    	catch (InterruptedException e)
+    	{
+    		Thread.currentThread().interrupt();
+    		throw new IllegalStateException("MCTS pondering interrupted", e);
+    	}
+    	finally
+    	{
+    		pondering = null;
+    	}
+    }
+    
+    /**
+     * @return a task for every worker of every tree
+     */
+    private List<Callable<Void>> getTasks()
+    {
+    	List<Callable<Void>> tasks = new ArrayList<>(trees.length * workers);
+    	for (SearchTree tree : trees)
+    	{
+    		for (Worker worker : tree.workers)
+    		{
+	    		tasks.add(() -> {
+	    			worker.run(tree);
+	    			return null;
+	    		});
+    		}
+    	}
+    	return tasks;
+    }
+    
+    private ExecutorService getPool()
+    {
+    	if (pool == null)
+    	{
+    		// Daemon threads, so that an idle pool does not keep the program alive
+    		pool = Executors.newCachedThreadPool(r -> {
+    			Thread thread = new Thread(r, "mcts-search");
+    			thread.setDaemon(true);
+    			return thread;
+    		});
+    	}
+    	return pool;
+    }
+    
+    /**
+     * wait for the given searches to end
+     */
+    private static void join(List<Future<Void>> searches) throws InterruptedException
+    {
+    	try
+    	{
+    		for (Future<Void> search : searches)
+    		{
+    			search.get();
+    		}
+    	}
+    	catch (ExecutionException e)
+    	{
+    		throw new IllegalStateException("MCTS search failed", e.getCause());
+    	}
+    }
+    
+    /**
+     * A search tree, with the threads that search it
+     */
+    private class SearchTree
+    {
+        // the nodes of the tree, and the id of its root, -1 before the first search
+        final NodePool nodes;
+        int root = -1;
+        
+        // the visits the root already had when the search started
+        int reusedVisits;
+        
+        final Worker[] workers;
         
-        // Calculate the UCT value for each of its selected nodes
-        for(int i = 0; i < currentNode.children.size(); i++)
+        // the number of slots of the transposition table of the nodes, 0 for a plain tree
+        final int tableSize;
+        
+        // iterations left for the workers to share, and iterations completed
+        final AtomicInteger iterations = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        
+        // rollouts saved by the iterations that stopped before beta rollouts, not yet spent on another iteration.
+        // They are pooled over the workers, so that the rollouts saved by several workers add up to iterations.
+        final AtomicInteger savedRollouts = new AtomicInteger();
+        
+        SearchTree(int numWorkers)
         {
-            // UCT calculation
-            double uctValue = currentNode.children.get(i).totValue[currentNode.state.playerTurn] / (currentNode.children.get(i).nVisits + epsilon)
-            		+ c * Math.sqrt(Math.log(nRollouts + 1) / (currentNode.children.get(i).nVisits + epsilon))
-            		+ epsilon * rm.nextDouble(); // For tie-breaking
-            
-            // Compare with the current maximum value
-            if(uctValue > bestUCT)
-            {
-                selected = currentNode.children.get(i);
-                bestUCT = uctValue;
-            }
+        	tableSize = transposition_table_size;
+        	nodes = new NodePool(rolloutSpec.getNumAgents(), tableSize);
+        	
+        	workers = new Worker[numWorkers];
+        	for (int w = 0; w < numWorkers; w++)
+        	{
+        		workers[w] = new Worker(rollout_threads);
+        	}
+        }
+        
+        /**
+         * collapse the coldest expanded nodes of this tree into leaves, which keep their statistics, so that it holds
+         * at most the given number of nodes with a state. The nodes are kept from the root down, the most visited
+         * first: the children of a kept node are kept if they all fit, and otherwise the node is collapsed. The root
+         * is never collapsed, as the decision is taken on its children, which are counted first. The pool is then
+         * compacted, which drops the nodes that are not kept from it and from the transposition table.
+         * Must not be called while the tree is being searched.
+         */
+        void evict(int maxNodes)
+        {
+        	boolean[] kept = new boolean[nodes.size()];
+        	PriorityQueue<Integer> frontier = new PriorityQueue<>((a, b) -> Integer.compare(nodes.visits[b], nodes.visits[a]));
+        	int numKept = 1;
+        	kept[root] = true;
+        	frontier.add(root);
+        	
+        	while (!frontier.isEmpty())
+        	{
+        		int node = frontier.poll();
+        		int first = nodes.firstChild[node];
+        		if (first < 0)
+        		{
+        			continue;
+        		}
+        		int end = first + nodes.childCount[node];
+        		
+        		// Children that have not been built have no state, and are not counted
+        		int added = 0;
+        		for (int child = first; child < end; child++)
+        		{
+        			int target = nodes.target[child];
+        			if (target >= 0 && !kept[target])
+        			{
+        				added++;
+        			}
+        		}
+        		
+        		if (node != root && numKept + added > maxNodes)
+        		{
+        			nodes.collapse(node);
+        			continue;
+        		}
+        		for (int child = first; child < end; child++)
+        		{
+        			int target = nodes.target[child];
+        			if (target >= 0 && !kept[target])
+        			{
+        				kept[target] = true;
+        				numKept++;
+        				frontier.add(target);
+        			}
+        		}
+        	}
+        	
+        	root = nodes.compact(root);
         }
         
-        // Return the nodes with maximum UCT value, null if current node is a leaf node (contains no child nodes)
-        return selected;
+        /**
+         * @return the shallowest node of this tree whose state is equal to the given one, -1 if there is none
+         */
+        int find(State state)
+        {
+        	long hash = state.getHash();
+        	boolean[] queued = new boolean[nodes.size()];
+        	int[] queue = new int[nodes.size()];
+        	int head = 0;
+        	int tail = 0;
+        	queue[tail++] = root;
+        	queued[root] = true;
+        	
+        	// The search graph may reach a node through several paths, but it is only searched once
+        	while (head < tail)
+        	{
+        		int node = queue[head++];
+        		if (nodes.state[node].getHash() == hash && nodes.state[node].equals(state))
+        		{
+        			return node;
+        		}
+        		
+        		int first = nodes.firstChild[node];
+        		if (first < 0)
+        		{
+        			continue;
+        		}
+        		for (int child = first; child < first + nodes.childCount[node]; child++)
+        		{
+        			// Children that have not been built have no subtree to reuse
+        			int target = nodes.target[child];
+        			if (target >= 0 && !queued[target])
+        			{
+        				queued[target] = true;
+        				queue[tail++] = target;
+        			}
+        		}
+        	}
+        	return -1;
+        }
     }
     
     /**
-     * The main MCTS process
-     * @param alpha number of iterations
-     * @param beta number of simulation per iteration
+     * A thread searching a tree, with its own random numbers and rollout kernel. The states of the tree nodes are
+     * shared by all the workers of the tree, so a worker only reads them, and plays on its own scratch state.
      */
-    private void run(int alpha, int beta)
-    {	 
-        long startTime = System.currentTimeMillis();
+    private class Worker
+    {
+        // random
+        final Random rm = new Random();
+        
+        // the threads that make the rollouts of an iteration, the first being this worker's own
+        final RolloutLane[] lanes;
         
-        // Record the list of nodes that has been visited
-        List<MCTS_Node> visited = new LinkedList<>();
+        // the moves of the leaf expanded by the current iteration
+        final MoveGenerator leafMoves = new MoveGenerator();
         
-        // Run alpha iterations
-        for(int i = 0; i < alpha; i++)
+        // the nodes visited by the current iteration, from the root down, grown to the deepest path seen
+        int[] path = new int[32];
+        int pathLength;
+        
+        // the results of the rollouts of an iteration
+        final double[] sum;
+        final double[] sumSq;
+        
+        Worker(int numLanes)
         {
-            visited.clear();
-            
-            // Set the current node to this node
-            MCTS_Node currentNode = this.rootNode;
+        	lanes = new RolloutLane[numLanes];
+        	for (int l = 0; l < numLanes; l++)
+        	{
+        		lanes[l] = new RolloutLane();
+        	}
+        	sum = new double[rolloutSpec.getNumAgents()];
+        	sumSq = new double[rolloutSpec.getNumAgents()];
+        }
+        
+        /**
+         * @param nRollouts number of rollouts made so far in the tree
+         * @return a child of the given node with maximum UCT value, whose node is built if it has not been, -1 if
+         * the given node has no children
+         */
+        private int select(NodePool nodes, int node, int nRollouts)
+        {
+            // Initialisation
+            int selected = -1;
+            double bestUCT = Double.NEGATIVE_INFINITY;
+            int ties = 0;
             
-            // Add this node to the list of visited node
-            visited.add(currentNode);
+            int first = nodes.getFirstChild(node);
+            int end = first + nodes.childCount[node];
+            int turn = nodes.state[node].playerTurn;
+            int numAgents = nodes.numAgents;
+            int[] visits = nodes.visits;
+            int[] virtualLosses = nodes.virtualLosses;
+            double[] totValue = nodes.value;
+            double logRollouts = Math.log(nRollouts + 1);
             
-            // Find the leaf node which has the largest UCT value
-            while ((currentNode != null) && !currentNode.isLeaf())
+            // Calculate the UCT value for each of its children
+            for (int child = first; child < end; child++)
             {
-                currentNode = select(currentNode);
+            	int target = nodes.getTarget(child);
+            	
+            	// The rollouts other threads are making below the child count as losses until they are back-propagated.
+            	// A child whose node has not been built has no statistics yet.
+            	int pending = (target < 0)? 0 : virtualLosses[target] * beta;
+            	double n = ((target < 0)? 0 : visits[target]) + pending + epsilon;
+            	double value = (target < 0)? 0.0 : totValue[target * numAgents + turn];
+            	
+                // UCT calculation
+                double uctValue = (value - pending * virtual_loss) / n
+                		+ c * Math.sqrt(logRollouts / n);
                 
-                if (currentNode != null)
+                // Compare with the current maximum value, breaking ties uniformly at random
+                if (uctValue > bestUCT)
                 {
-                    visited.add(currentNode);
+                    selected = child;
+                    bestUCT = uctValue;
+                    ties = 1;
+                }
+                else if (uctValue == bestUCT && rm.nextInt(++ties) == 0)
+                {
+                	selected = child;
                 }
             }
-
-        	boolean[] intentionAvailable = new boolean[match.numGoalPlanTrees];
-        	for (int int_num = 0; int_num < match.numGoalPlanTrees; int_num++)
+            
+            // Return the node with maximum UCT value, -1 if the node has no children
+            if (selected < 0)
+            {
+            	return -1;
+            }
+            int next = nodes.materialize(node, selected);
+            nodes.addVirtualLoss(next);
+            return next;
+        }
+        
+        /**
+         * add a node to the path of the current iteration
+         */
+        private void visit(int node)
+        {
+            if (pathLength == path.length)
+            {
+            	path = Arrays.copyOf(path, 2 * pathLength);
+            }
+            path[pathLength++] = node;
+        }
+        
+        /**
+         * make rollouts from the given leaf state, shared among the lanes, adding their results to sum and sumSq
+         * @return the number of rollouts made
+         */
+        private int simulate(State leaf, int rollouts)
+        {
+            for (int l = 0; l < lanes.length; l++)
+            {
+            	lanes[l].prepare(leaf, rollouts / lanes.length + ((l < rollouts % lanes.length)? 1 : 0));
+            }
+            if (lanes.length == 1)
+            {
+            	lanes[0].compute();
+            }
+            else
+            {
+            	ForkJoinTask.invokeAll(lanes);
+            }
+            
+            for (RolloutLane lane : lanes)
+            {
+            	for (int agentNum = 0; agentNum < sum.length; agentNum++)
+            	{
+            		sum[agentNum] += lane.sum[agentNum];
+            		sumSq[agentNum] += lane.sumSq[agentNum];
+            	}
+            }
+            return rollouts;
+        }
+        
+        /**
+         * @param rollouts the number of rollouts of this iteration, whose results are in sum and sumSq
+         * @return true if the confidence interval of the mean score of every agent at the given leaf, from its
+         * statistics and the rollouts of this iteration, is no wider than the rollout tolerance on either side
+         */
+        private boolean isSettled(NodePool nodes, int leaf, int rollouts)
+        {
+            int n = nodes.visits[leaf] + rollouts;
+            int base = leaf * nodes.numAgents;
+            
+            for (int agentNum = 0; agentNum < sum.length; agentNum++)
+            {
+            	double mean = (nodes.value[base + agentNum] + sum[agentNum]) / n;
+            	double variance = Math.max(0.0, (nodes.sqValue[base + agentNum] + sumSq[agentNum]) / n - mean * mean);
+            	
+            	if (rollout_z * Math.sqrt(variance / n) > rollout_tolerance)
+            	{
+            		return false;
+            	}
+            }
+            return true;
+        }
+        
+        /**
+         * add the rollouts an iteration saved to the pool of the tree, and take beta rollouts back out of it if
+         * there are enough for another iteration
+         * @return true if another iteration was paid for
+         */
+        private boolean spendSaved(AtomicInteger pool, int saved)
+        {
+        	int total = pool.addAndGet(saved);
+        	while (total >= beta)
         	{
-        		intentionAvailable[int_num] = available_intentions[currentNode.state.playerTurn][int_num] && gpt_visible[int_num];
+        		if (pool.compareAndSet(total, total - beta))
+        		{
+        			return true;
+        		}
+        		total = pool.get();
         	}
-        	
-    		currentNode.expand(intentionAvailable, true);
-
-            // Select a node for simulation
-            currentNode = select(currentNode);
-            visited.add(currentNode);
+        	return false;
+        }
+        
+        /**
+         * The main MCTS process: run iterations of the given tree until there are none left, the deadline has
+         * passed or the search is cancelled
+         */
+        private void run(SearchTree tree)
+        {
+            NodePool nodes = tree.nodes;
+            int root = tree.root;
             
-            // TODO: Tidy this logic later
-            int otherAgentNum = 1 - agent_num;
+            nodes.enter();
+            try
+            {
+	            for (RolloutLane lane : lanes)
+	            {
+	            	lane.start(nodes.state[root]);
+	            }
+            }
+            finally
+            {
+            	nodes.exit();
+            }
+            State scratch = lanes[0].scratch;
             
-            // Simulation
-            for (int j = 0; j < beta; j++)
+            // An iteration is claimed without taking the count below zero, so that an iteration given back by
+            // another worker's saved rollouts is never lost to the workers that found none left
+            while (tree.iterations.getAndUpdate(CLAIM) > 0)
             {
-            	// TODO: This assumes that the rollout schedulers are not stateful. It might be safer to clone them.
-                Match m = new Match("MCTS_rollout", match.numGoalPlanTrees, match.allianceType, currentNode.state.clone(),
-                	rollout_schedulers, new String[] {"rollout_a1", "rollout_a2"}, match.assumed_politeness);
+            	int rollouts = 0;
+            	
+            	// The nodes may only be added to while the pool is entered, and its arrays may be replaced in between
+            	nodes.enter();
+            	try
+            	{
+	                pathLength = 0;
+	                
+	                // Set the current node to this node
+	                int currentNode = root;
+	                
+	                // Add this node to the path of visited nodes
+	                visit(currentNode);
+	                
+	                // Find the leaf node which has the largest UCT value
+	                while ((currentNode >= 0) && nodes.isExpanded(currentNode))
+	                {
+	                    currentNode = select(nodes, currentNode, nodes.visits[root]);
+	                    
+	                    if (currentNode >= 0)
+	                    {
+	                        visit(currentNode);
+	                    }
+	                }
+	                
+	            	// If another thread expands the leaf first, its children are kept
+	            	scratch.copyFrom(nodes.state[currentNode]);
+	            	leafMoves.generate(scratch, movable[scratch.playerTurn]);
+	            	nodes.expand(currentNode, leafMoves, true);
+	        		
+	                // Select a node for simulation
+	                currentNode = select(nodes, currentNode, nodes.visits[root]);
+	                visit(currentNode);
+	                
+	                // Simulation, in rounds of rollouts shared among the lanes. With a rollout tolerance, the rounds
+	                // stop once the mean score of the leaf is known closely enough, and the rollouts left are saved
+	                // for further iterations.
+	                State leaf = nodes.state[currentNode];
+	                Arrays.fill(sum, 0.0);
+	                Arrays.fill(sumSq, 0.0);
+	                int round = (rollout_tolerance > 0)? Math.max(rollout_min, lanes.length) : beta;
+	                while (rollouts < beta)
+	                {
+	                	rollouts += simulate(leaf, Math.min(round, beta - rollouts));
+	                	round = lanes.length;
+	                	
+	                	if (rollout_tolerance > 0 && isSettled(nodes, currentNode, rollouts))
+	                	{
+	                		break;
+	                	}
+	                }
+	                
+	                // Back-propagation of the score vector of the batch, once for the whole batch
+	                for (int v = 0; v < pathLength; v++)
+	                {
+	                	nodes.update(path[v], rollouts, sum, sumSq);
+	                }
+	                
+	                for (int v = 1; v < pathLength; v++)
+	                {
+	                	nodes.removeVirtualLoss(path[v]);
+	                }
+            	}
+            	finally
+            	{
+            		nodes.exit();
+            	}
                 
-                State endOfGame = m.run(false, false, mirror_match);
+                if (rollouts < beta && spendSaved(tree.savedRollouts, beta - rollouts))
+                {
+                	tree.iterations.incrementAndGet();
+                }
+                tree.completed.incrementAndGet();
                 
-                nRollouts++;
+                if (cancelled || (hasDeadline && System.nanoTime() - deadline >= 0))
+                {
+                	break;
+                }
+            }
+            
+            for (RolloutLane lane : lanes)
+            {
+            	lane.scratch.release();
+            }
+        }
+    }
+    
+    /**
+     * Plays a share of the rollouts of an iteration, with its own random numbers, rollout kernel and scratch state.
+     * A lane is a fork-join task that is reinitialised for every iteration, so running it allocates nothing.
+     */
+    @SuppressWarnings("serial")
+    private class RolloutLane extends RecursiveAction
+    {
+        final Random rm = new Random();
+        
+        // plays the rollouts, every player following the Stochastic_FIFO_Scheduler policy
+        final SimulationKernel rolloutKernel = new SimulationKernel(rolloutSpec, rm);
+        
+        // Rollouts update their state at every step, so they all run on one scratch state with a flat belief base,
+        // which is rewound to the leaf after each rollout
+        State scratch;
+        
+        State leaf;
+        int rollouts;
+        final double[] sum = new double[rolloutSpec.getNumAgents()];
+        final double[] sumSq = new double[rolloutSpec.getNumAgents()];
+        
+        /**
+         * start a search from the given root state
+         */
+        void start(State root)
+        {
+        	scratch = new State(root, new BeliefBase(root.beliefs));
+        	rolloutKernel.setCutoff(rollout_depth);
+        }
+        
+        /**
+         * get ready to make the given number of rollouts from the given leaf state
+         */
+        void prepare(State leaf, int rollouts)
+        {
+        	this.leaf = leaf;
+        	this.rollouts = rollouts;
+        	reinitialize();
+        }
+        
+        @Override
+        protected void compute()
+        {
+        	Arrays.fill(sum, 0.0);
+        	Arrays.fill(sumSq, 0.0);
+        	
+        	if (rollouts == 0)
+        	{
+        		return;
+        	}
+        	
+            scratch.copyFrom(leaf);
+            scratch.mark();
+            
+            for (int j = 0; j < rollouts; j++)
+            {
+                double[] scores = rolloutKernel.simulate(scratch);
                 
-                // Back-propagation
-                // TODO: Fix this logic later so that it caters for more than two agents. It's pretty hacky right now.
-                for(MCTS_Node node : visited)
+                for (int agentNum = 0; agentNum < scores.length; agentNum++)
                 {
-                    node.nVisits++;
-                    
-                    // Update value for this scheduler
-                    double value_for_this_agent = endOfGame.getStateScore(this);
-                	node.totValue[agent_num] += value_for_this_agent;
-        			node.totSqValue[agent_num] += value_for_this_agent * value_for_this_agent;
-                    
-                    // Update value for other agent
-        			if (match.schedulers.length > 1)
-        			{
-        				// Only count intentions that *this* scheduler can see
-        		    	boolean[] intention_counts_towards_score = new boolean[endOfGame.intentions.size()];
-	        	        for (int intNum = 0; intNum < endOfGame.intentions.size(); intNum++)
-        		    	{
-        		    		intention_counts_towards_score[intNum] = gpt_visible[intNum];
-        		    	}
-
-	        	    	int score = 0;
-	        	    	
-	        	        for (int intNum = 0; intNum < endOfGame.intentions.size(); intNum++)
-	        	        {
-	        	        	if (intention_counts_towards_score[intNum])
-	        	        	{
-	        	        		// If the intention is completed...
-	        	                if (endOfGame.intentions.get(intNum) == null)
-	        	                {
-	        	                	// If the intention belongs to *this* agent
-	        	                	if (available_intentions[agent_num][intNum])
-	        	                	{
-		        	                	score += assumed_politeness_of_other_agent;
-	        	                	}
-	        	                	else
-	        	                	{
-	        	                		// Intention belongs to the other agent (assuming there are two agents total)
-		        	                	score += 1.0;
-	        	                	}
-	        	                }
-	        	        	}
-	        	        }
-	        	        
-	                	node.totValue[otherAgentNum] += score;
-	        			node.totSqValue[otherAgentNum] += score * score;
-        			}
+                	sum[agentNum] += scores[agentNum];
+                	sumSq[agentNum] += scores[agentNum] * scores[agentNum];
                 }
+                
+                // Return to the leaf for the next rollout
+                scratch.rewind();
             }
         }
-
-        Log.info("MCTS calculation time = " + (System.currentTimeMillis() - startTime) + "ms");
     }
 }
@@ -5,7 +5,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 
-import beliefbase.Condition;
+import beliefbase.ConditionMask;
 import goalplantree.ActionNode;
 import goalplantree.GoalNode;
 import goalplantree.PlanNode;
@@ -141,7 +141,7 @@ public class Match
             	consecutive_passes = 0;
             	Log.info("intention " + decision.iChoice +  " selected", verbose);
             	
-	            TreeNode selected = currentState.intentions.get(decision.iChoice);
+	            TreeNode selected = currentState.getIntention(decision.iChoice);
 	            
 	            if (selected instanceof GoalNode)
 	            {
@@ -151,7 +151,7 @@ public class Match
 	                Log.info(plan.getType() + " selected", verbose);
 	
 	                // Check pre-condition
-	                Condition[] prec = plan.getPrec();
+	                ConditionMask prec = plan.getPrecMask();
 	                if(currentState.beliefs.evaluate(prec))
 	                {
 	                    Log.info(plan.getType() + " starts", verbose);
@@ -163,15 +163,15 @@ public class Match
 	                        Log.info(first.getType() + " starts", verbose);
 	                        
 	                        // get its precondition
-	                        Condition[] precA = ((ActionNode) first).getPrec();
+	                        ConditionMask precA = ((ActionNode) first).getPrecMask();
 	                        if(currentState.beliefs.evaluate(precA))
 	                        {
 	                            // update the environment
-	                            Condition[] post = ((ActionNode) first).getPostc();
-	                            currentState.beliefs.apply(post);
+	                            ConditionMask post = ((ActionNode) first).getPostcMask();
+	                            currentState.apply(post);
 	                            
 	                            // update intentions
-	                            currentState.intentions.set(decision.iChoice, nextIstep(first));
+	                            currentState.setIntention(decision.iChoice, nextIstep(first));
 	                            
 	                            Log.info(first.getType() + " succeeds", verbose); 
 	                        }
@@ -182,7 +182,7 @@ public class Match
 	                    }
 	                    else if (first instanceof GoalNode)
 	                    {
-	                    	currentState.intentions.set(decision.iChoice, first);
+	                    	currentState.setIntention(decision.iChoice, first);
 	                    }
 	                }
 	                else
@@ -198,20 +198,20 @@ public class Match
 	                ActionNode action = (ActionNode) selected;
 	                
 	                // check the precondition of this action
-	                Condition[] prec = action.getPrec();
+	                ConditionMask prec = action.getPrecMask();
 	                
 	                Log.info(action.getType() + " starts", verbose);
 	                
 	                if(currentState.beliefs.evaluate(prec)){
 	                	
 	                    // get postcondition
-	                    Condition[] postc = action.getPostc();
+	                    ConditionMask postc = action.getPostcMask();
 	                    
 	                    // update the environment
-	                    currentState.beliefs.apply(postc);
+	                    currentState.apply(postc);
 	                    
 	                    // update the intentions
-	                    currentState.intentions.set(decision.iChoice, nextIstep(selected));
+	                    currentState.setIntention(decision.iChoice, nextIstep(selected));
 	                    
 	                    Log.info(action.getType() + " succeeds", verbose);
 	                }
@@ -237,6 +237,7 @@ public class Match
         
         for (int i = 0; i < numAgents; i++)
         {
+        	schedulers[i].endMatch();
         	schedulers[i].match = null; // Free match memory in case the scheduler is still referenced in the main method
             Log.info(agent_names[i] + "'s score = " + currentState.getStateScore(schedulers[i]), verbose);
         }
@@ -278,7 +279,7 @@ public class Match
 	        {
 	        	str.append("," + agent_names[i].replace("_clone", ""));
 	        	str.append("," + s.getStateScore(schedulers[i]));
-	        	str.append("," + s.getNumIntentionsCompleted(schedulers[i].available_intentions[i]));
+	        	str.append("," + s.getNumIntentionsCompleted(schedulers[i].owned_intentions[i]));
 	        }
 	        
 	        out.println(str.toString());
@@ -296,25 +297,6 @@ public class Match
      */
     public TreeNode nextIstep(TreeNode node)
     {
-        // if it is not the last step in a plan
-        if(node.getNext() != null)
-        {
-            return node.getNext();
-        }
-        // if it is
-        else
-        {
-            // if it is the top-level goal
-            if(node.getParent() == null)
-            {
-                return null;
-            }
-            else
-            {
-                // get the goal it is going to achieve
-                GoalNode gn = (GoalNode) node.getParent().getParent();
-                return nextIstep(gn);
-            }
-        }
+        return node.nextIstep();
     }
 }
@@ -0,0 +1,66 @@
+package scheduler;
+
+/**
+ * The fixed details of a match that a rollout needs: who may pursue which intentions, how the rollout
+ * players choose their moves, and how the completed intentions are scored for each agent.
+ *
+ * A spec is computed once per match and never changes, so one spec can be shared by any number of
+ * simulation kernels.
+ */
+public class MatchSpec {
+
+	final int numAgents;
+	final int numIntentions;
+
+	// movable[a]: the intentions agent a may progress in a rollout
+	final long[][] movable;
+
+	// counted[a][owner]: the intentions of owner that count towards the score of agent a
+	final long[][][] counted;
+
+	// value[a][owner]: what one completed intention of owner is worth to agent a
+	final double[][] value;
+
+	// probability that a rollout player picks a random move (or a pass) instead of sticking with its previous choice
+	final double stochasticity;
+
+	final int maxConsecutivePasses;
+
+	/**
+	 * @param movable bit mask of the intentions each agent may progress in a rollout
+	 * @param owned bit mask of the intentions owned by each agent
+	 * @param scored bit mask of the intentions that count towards the score of each agent
+	 * @param value value[a][owner] is what one completed intention of owner is worth to agent a
+	 */
+	public MatchSpec(int numIntentions, long[][] movable, long[][] owned, long[][] scored, double[][] value,
+		double stochasticity, int maxConsecutivePasses)
+	{
+		this.numAgents = owned.length;
+		this.numIntentions = numIntentions;
+		this.movable = new long[numAgents][];
+		this.counted = new long[numAgents][numAgents][];
+		this.value = new double[numAgents][];
+		this.stochasticity = stochasticity;
+		this.maxConsecutivePasses = maxConsecutivePasses;
+
+		for (int a = 0; a < numAgents; a++)
+		{
+			this.movable[a] = movable[a].clone();
+			this.value[a] = value[a].clone();
+
+			for (int owner = 0; owner < numAgents; owner++)
+			{
+				counted[a][owner] = new long[owned[owner].length];
+				for (int w = 0; w < owned[owner].length; w++)
+				{
+					counted[a][owner][w] = owned[owner][w] & scored[a][w];
+				}
+			}
+		}
+	}
+
+	public int getNumAgents()
+	{
+		return numAgents;
+	}
+}
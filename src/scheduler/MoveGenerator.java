@@ -0,0 +1,130 @@
+package scheduler;
+
+import java.util.Arrays;
+
+import goalplantree.Forest;
+
+/**
+ * Lists the moves of a player in a state: every intention whose next step is an action with a precondition that
+ * holds, and every plan with a precondition that holds for an intention whose next step is a goal. The moves come
+ * in order of intention and then of plan, as (intention, plan) pairs, the plan choice being -1 for an action, and
+ * are the children NodePool.expand gives a search node.
+ *
+ * No successor state is built, and the moves are written into buffers that are reused from one call to the next,
+ * so once the buffers have grown to the most moves of a state, listing the moves allocates nothing. A generator
+ * holds the moves of its last call, so it must only be used by one thread at a time.
+ */
+public class MoveGenerator {
+
+	private int[] intentionChoices;
+	private int[] planChoices;
+	private int size;
+
+	public MoveGenerator()
+	{
+		this.intentionChoices = new int[16];
+		this.planChoices = new int[16];
+	}
+
+	/**
+	 * list the moves in the given state, replacing those of the previous call
+	 * @param movable bit mask of the intentions that may be progressed
+	 * @return the number of moves, not counting passing
+	 */
+	public int generate(State state, long[] movable)
+	{
+		Forest forest = state.forest;
+		size = 0;
+
+		for (int w = 0; w < movable.length; w++)
+		{
+			for (long bits = movable[w]; bits != 0; bits &= bits - 1)
+			{
+				int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+
+				// ignore the intention which already has been achieved
+				if (state.isCompleted(i))
+				{
+					continue;
+				}
+
+				int node = state.getIntentionId(i);
+				if (forest.getKind(node) == Forest.GOAL)
+				{
+					for (int j = 0; j < forest.getChildCount(node); j++)
+					{
+						if (state.isApplicable(i, j))
+						{
+							add(i, j);
+						}
+					}
+				}
+				else if (state.isApplicable(i, 0))
+				{
+					add(i, -1);
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of moves listed by the last call to generate
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	public int getIntentionChoice(int move)
+	{
+		return intentionChoices[move];
+	}
+
+	public int getPlanChoice(int move)
+	{
+		return planChoices[move];
+	}
+
+	/**
+	 * @return the index of the given move, -1 if it is not one of the moves
+	 */
+	public int indexOf(int intentionChoice, int planChoice)
+	{
+		for (int move = 0; move < size; move++)
+		{
+			if (intentionChoices[move] == intentionChoice && planChoices[move] == planChoice)
+			{
+				return move;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the index of the first move of the given intention, -1 if it has none
+	 */
+	public int indexOf(int intentionChoice)
+	{
+		for (int move = 0; move < size; move++)
+		{
+			if (intentionChoices[move] == intentionChoice)
+			{
+				return move;
+			}
+		}
+		return -1;
+	}
+
+	private void add(int intentionChoice, int planChoice)
+	{
+		if (size == intentionChoices.length)
+		{
+			intentionChoices = Arrays.copyOf(intentionChoices, 2 * size);
+			planChoices = Arrays.copyOf(planChoices, 2 * size);
+		}
+		intentionChoices[size] = intentionChoice;
+		planChoices[size] = planChoice;
+		size++;
+	}
+}
@@ -0,0 +1,471 @@
+package scheduler;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import beliefbase.ConditionMask;
+import goalplantree.ActionNode;
+import goalplantree.GoalNode;
+import goalplantree.TreeNode;
+
+/**
+ * The nodes of a search tree, laid out as parallel arrays indexed by node id rather than as one object per node:
+ * the state of each node, its visits, the sum and the sum of squares of the score of each agent over its rollouts,
+ * and the range of its children. The children of all the nodes are laid out the same way, indexed by child id:
+ * the move of each child, and the node that the move leads to. A node's children are the moves of its player, and
+ * the node a child leads to is only built (by playing the move on a copy of the state) when the search first
+ * descends into it.
+ *
+ * With a transposition table, the children whose moves lead to equal states lead to the same node, which then
+ * holds the statistics of every path through it.
+ *
+ * Several threads may search the pool at once, each iteration between enter() and exit(). Nodes and children are
+ * only added during the search, and a thread that runs out of room waits for the other threads to exit, grows the
+ * arrays and enters again, so ids stay valid but the arrays must be read again after adding a node or children.
+ * The other changes (reset, collapse, compact) must only be made while no thread is searching the pool.
+ */
+public class NodePool {
+
+	private static final VarHandle INT = MethodHandles.arrayElementVarHandle(int[].class);
+	private static final VarHandle DOUBLE = MethodHandles.arrayElementVarHandle(double[].class);
+
+	final int numAgents;
+
+	// per node: its state, the rollouts made through it, the threads searching below it (whose rollouts count as
+	// losses until they are back-propagated), the sum and the sum of squares of each agent's score over the rollouts
+	// (numAgents values per node), and its children, firstChild being -1 until the node is expanded
+	State[] state;
+	int[] visits;
+	int[] virtualLosses;
+	double[] value;
+	double[] sqValue;
+	int[] firstChild;
+	int[] childCount;
+
+	// per child: its move (the intention choice being -1 for passing, the plan choice -1 for an action), and the
+	// node the move leads to, -1 until it is built
+	int[] intentionChoice;
+	int[] planChoice;
+	int[] target;
+
+	private final AtomicInteger numNodes = new AtomicInteger();
+	private final AtomicInteger numChildren = new AtomicInteger();
+
+	// shares the nodes of equal states, null for a plain tree
+	final TranspositionTable table;
+
+	// held for reading by every searching thread, and for writing while the arrays are grown
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * @param tableSize the number of slots of the transposition table, 0 for a plain tree
+	 */
+	public NodePool(int numAgents, int tableSize)
+	{
+		this.numAgents = numAgents;
+		this.table = (tableSize > 0)? new TranspositionTable(this, tableSize) : null;
+
+		allocateNodes(1024);
+		allocateChildren(8192);
+	}
+
+	/**
+	 * @return the number of nodes, including those that are no longer reachable until the next compaction
+	 */
+	public int size()
+	{
+		return numNodes.get();
+	}
+
+	/**
+	 * start searching the pool
+	 */
+	public void enter()
+	{
+		lock.readLock().lock();
+	}
+
+	/**
+	 * stop searching the pool
+	 */
+	public void exit()
+	{
+		lock.readLock().unlock();
+	}
+
+	/**
+	 * remove all the nodes, and add a root node with the given state
+	 * @return the id of the root
+	 */
+	public int reset(State rootState)
+	{
+		Arrays.fill(state, 0, numNodes.get(), null);
+		numNodes.set(1);
+		numChildren.set(0);
+		if (table != null)
+		{
+			table.clear();
+		}
+
+		init(0, rootState);
+		return 0;
+	}
+
+	/**
+	 * @return true if the children of the given node have been added
+	 */
+	public boolean isExpanded(int node)
+	{
+		return (int) INT.getAcquire(firstChild, node) >= 0;
+	}
+
+	/**
+	 * @return the first child of the given node, -1 if it has not been expanded
+	 */
+	public int getFirstChild(int node)
+	{
+		return (int) INT.getAcquire(firstChild, node);
+	}
+
+	/**
+	 * @return the node the given child leads to, -1 if it has not been built
+	 */
+	public int getTarget(int child)
+	{
+		return (int) INT.getAcquire(target, child);
+	}
+
+	/**
+	 * add the given moves, and passing if include_pass is set, as the children of the given node, unless another
+	 * thread has already done so. Every thread expanding a node finds the same moves, in the same order.
+	 */
+	public void expand(int node, MoveGenerator moves, boolean include_pass)
+	{
+		int numMoves = moves.size();
+		int count = numMoves + (include_pass? 1 : 0);
+		int first = numChildren.getAndAdd(count);
+		if (first + count > target.length)
+		{
+			grow(0, first + count);
+		}
+
+		for (int move = 0; move < numMoves; move++)
+		{
+			intentionChoice[first + move] = moves.getIntentionChoice(move);
+			planChoice[first + move] = moves.getPlanChoice(move);
+			target[first + move] = -1;
+		}
+
+		// Intention choice equal to -1 represents "pass" action
+		if (include_pass)
+		{
+			intentionChoice[first + numMoves] = -1;
+			planChoice[first + numMoves] = -1;
+			target[first + numMoves] = -1;
+		}
+
+		// The children are published with the first of them, and those of a thread that loses the race are dropped
+		// at the next compaction
+		childCount[node] = count;
+		INT.compareAndSet(firstChild, node, -1, first);
+	}
+
+	/**
+	 * build the node the given child of the given node leads to, if it has not been built yet. A child reached by
+	 * passing is never shared through the transposition table, so that the search graph has no cycles.
+	 * @return the node the child leads to
+	 */
+	public int materialize(int parent, int child)
+	{
+		int node = getTarget(child);
+		if (node >= 0)
+		{
+			return node;
+		}
+
+		State parentState = state[parent];
+		State nState = parentState.clone();
+		int i = intentionChoice[child];
+		if (i != -1)
+		{
+			play(nState, i, planChoice[child]);
+		}
+		nState.playerTurn = (parentState.playerTurn + 1) % numAgents;
+
+		boolean shared = (table != null && i != -1);
+		int known = shared? table.get(nState) : -1;
+		node = (known >= 0)? known : add(nState);
+
+		// If another thread builds the node first, its node is kept and the one built here is dropped at the next
+		// compaction. A node is only put in the table once it is reachable, as other threads may find it there.
+		int witness = (int) INT.compareAndExchange(target, child, -1, node);
+		if (witness != -1)
+		{
+			return witness;
+		}
+		if (shared && known < 0)
+		{
+			table.put(node);
+		}
+		return node;
+	}
+
+	/**
+	 * record the results of a batch of rollouts that went through the given node
+	 * @param rollouts the number of rollouts
+	 * @param sum the sum over the rollouts of the score of each agent
+	 * @param sumSq the sum over the rollouts of the square of the score of each agent
+	 */
+	public void update(int node, int rollouts, double[] sum, double[] sumSq)
+	{
+		INT.getAndAdd(visits, node, rollouts);
+
+		int base = node * numAgents;
+		for (int agentNum = 0; agentNum < numAgents; agentNum++)
+		{
+			DOUBLE.getAndAdd(value, base + agentNum, sum[agentNum]);
+			DOUBLE.getAndAdd(sqValue, base + agentNum, sumSq[agentNum]);
+		}
+	}
+
+	public void addVirtualLoss(int node)
+	{
+		INT.getAndAdd(virtualLosses, node, 1);
+	}
+
+	public void removeVirtualLoss(int node)
+	{
+		INT.getAndAdd(virtualLosses, node, -1);
+	}
+
+	/**
+	 * turn the given node back into a leaf, which keeps its statistics
+	 */
+	public void collapse(int node)
+	{
+		firstChild[node] = -1;
+		childCount[node] = 0;
+	}
+
+	/**
+	 * drop the nodes that cannot be reached from the given root, and number the others from 0 in the order they
+	 * are reached from it, breadth first. The children of the nodes that are kept are kept with them, and the
+	 * transposition table keeps the nodes that are kept.
+	 * @return the new id of the root, which is 0
+	 */
+	public int compact(int root)
+	{
+		int n = numNodes.get();
+		int[] newId = new int[n];
+		int[] order = new int[n];
+		Arrays.fill(newId, -1);
+
+		int kept = 0;
+		newId[root] = kept;
+		order[kept++] = root;
+		for (int k = 0; k < kept; k++)
+		{
+			int first = firstChild[order[k]];
+			if (first < 0)
+			{
+				continue;
+			}
+			for (int child = first; child < first + childCount[order[k]]; child++)
+			{
+				int node = target[child];
+				if (node >= 0 && newId[node] < 0)
+				{
+					newId[node] = kept;
+					order[kept++] = node;
+				}
+			}
+		}
+
+		State[] oldState = state;
+		int[] oldVisits = visits;
+		int[] oldVirtualLosses = virtualLosses;
+		double[] oldValue = value;
+		double[] oldSqValue = sqValue;
+		int[] oldFirstChild = firstChild;
+		int[] oldChildCount = childCount;
+		int[] oldIntentionChoice = intentionChoice;
+		int[] oldPlanChoice = planChoice;
+		int[] oldTarget = target;
+		allocateNodes(oldVisits.length);
+		allocateChildren(oldTarget.length);
+
+		int children = 0;
+		for (int k = 0; k < kept; k++)
+		{
+			int old = order[k];
+			state[k] = oldState[old];
+			visits[k] = oldVisits[old];
+			virtualLosses[k] = oldVirtualLosses[old];
+			System.arraycopy(oldValue, old * numAgents, value, k * numAgents, numAgents);
+			System.arraycopy(oldSqValue, old * numAgents, sqValue, k * numAgents, numAgents);
+
+			int first = oldFirstChild[old];
+			if (first < 0)
+			{
+				firstChild[k] = -1;
+				continue;
+			}
+
+			firstChild[k] = children;
+			childCount[k] = oldChildCount[old];
+			for (int child = first; child < first + oldChildCount[old]; child++)
+			{
+				intentionChoice[children] = oldIntentionChoice[child];
+				planChoice[children] = oldPlanChoice[child];
+				target[children] = (oldTarget[child] < 0)? -1 : newId[oldTarget[child]];
+				children++;
+			}
+		}
+
+		numNodes.set(kept);
+		numChildren.set(children);
+		if (table != null)
+		{
+			table.remap(newId);
+		}
+		return 0;
+	}
+
+	/**
+	 * add a node with the given state. The caller must have entered the pool.
+	 * @return the id of the node
+	 */
+	private int add(State nodeState)
+	{
+		int node = numNodes.getAndIncrement();
+		if (node >= visits.length)
+		{
+			grow(node + 1, 0);
+		}
+		init(node, nodeState);
+		return node;
+	}
+
+	private void init(int node, State nodeState)
+	{
+		state[node] = nodeState;
+		visits[node] = 0;
+		virtualLosses[node] = 0;
+		Arrays.fill(value, node * numAgents, (node + 1) * numAgents, 0.0);
+		Arrays.fill(sqValue, node * numAgents, (node + 1) * numAgents, 0.0);
+		firstChild[node] = -1;
+		childCount[node] = 0;
+	}
+
+	/**
+	 * make room for the given numbers of nodes and children, once every other thread has exited the pool. The
+	 * caller must have entered the pool, and enters it again before this returns.
+	 */
+	private void grow(int nodes, int children)
+	{
+		lock.readLock().unlock();
+		lock.writeLock().lock();
+		try
+		{
+			if (nodes > visits.length)
+			{
+				copyNodes(Math.max(nodes, 2 * visits.length));
+			}
+			if (children > target.length)
+			{
+				copyChildren(Math.max(children, 2 * target.length));
+			}
+			lock.readLock().lock();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void copyNodes(int capacity)
+	{
+		state = Arrays.copyOf(state, capacity);
+		visits = Arrays.copyOf(visits, capacity);
+		virtualLosses = Arrays.copyOf(virtualLosses, capacity);
+		value = Arrays.copyOf(value, capacity * numAgents);
+		sqValue = Arrays.copyOf(sqValue, capacity * numAgents);
+		firstChild = Arrays.copyOf(firstChild, capacity);
+		childCount = Arrays.copyOf(childCount, capacity);
+	}
+
+	private void copyChildren(int capacity)
+	{
+		intentionChoice = Arrays.copyOf(intentionChoice, capacity);
+		planChoice = Arrays.copyOf(planChoice, capacity);
+		target = Arrays.copyOf(target, capacity);
+	}
+
+	private void allocateNodes(int capacity)
+	{
+		state = new State[capacity];
+		visits = new int[capacity];
+		virtualLosses = new int[capacity];
+		value = new double[capacity * numAgents];
+		sqValue = new double[capacity * numAgents];
+		firstChild = new int[capacity];
+		childCount = new int[capacity];
+	}
+
+	private void allocateChildren(int capacity)
+	{
+		intentionChoice = new int[capacity];
+		planChoice = new int[capacity];
+		target = new int[capacity];
+	}
+
+	/**
+	 * progress an intention of the given state by a move, as expansion used to do when it built the child states:
+	 * a plan is adopted together with its first step if that is an action
+	 */
+	private static void play(State state, int i, int j)
+	{
+		TreeNode next = state.getIntention(i);
+
+		// if the next step of this intention is an action
+		if (next instanceof ActionNode)
+		{
+			ActionNode action = (ActionNode) next;
+
+			// apply its postcondition and update the next step
+			state.apply(action.getPostcMask());
+			state.setIntention(i, action.nextIstep());
+			return;
+		}
+
+		GoalNode goal = (GoalNode) next;
+		TreeNode[] body = goal.getPlans()[j].getPlanbody();
+
+		// if the plan is not empty
+		if (body.length > 0)
+		{
+			TreeNode firstStep = body[0];
+
+			// if the first step in a plan is an action, apply this action
+			if (firstStep instanceof ActionNode)
+			{
+				ConditionMask postc = ((ActionNode) firstStep).getPostcMask();
+				state.apply(postc);
+
+				// update the next step
+				state.setIntention(i, firstStep.nextIstep());
+			}
+			else
+			{
+				state.setIntention(i, firstStep);
+			}
+		}
+		else
+		{
+			state.setIntention(i, goal.nextIstep());
+		}
+	}
+}
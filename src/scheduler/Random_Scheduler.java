@@ -4,7 +4,7 @@ import java.util.Random;
 
 public class Random_Scheduler extends Scheduler {
 
-	public MCTS_Node rootNode;
+	private final MoveGenerator moves = new MoveGenerator();
 	
     private static Random rm = new Random();
     
@@ -16,16 +16,19 @@ public class Random_Scheduler extends Scheduler {
     
     public Decision getDecision(State state)
     {
-    	this.rootNode = new MCTS_Node(state, match);
+    	int numMoves = moves.generate(state, owned_intentions[agent_num]);
     	
-    	this.rootNode.expand(available_intentions[agent_num], true);
+    	boolean playerMustPass = numMoves == 0;
     	
-    	boolean playerMustPass = rootNode.children.size() == 1;
-    	
-        int i = rm.nextInt(rootNode.children.size());
+    	// Any move, or passing
+        int i = rm.nextInt(numMoves + 1);
+        if (i == numMoves)
+        {
+        	return new Decision(-1, -1, playerMustPass);
+        }
 
-        return new Decision(rootNode.children.get(i).getIntentionChoice(),
-        	rootNode.children.get(i).getPlanChoice(),
+        return new Decision(moves.getIntentionChoice(i),
+        	moves.getPlanChoice(i),
         	playerMustPass);
     }
 }
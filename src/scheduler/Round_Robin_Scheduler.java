@@ -1,18 +1,17 @@
 package scheduler;
 import beliefbase.BeliefBase;
-import beliefbase.Condition;
+import beliefbase.ConditionMask;
 import goalplantree.ActionNode;
 import goalplantree.GoalNode;
 import goalplantree.PlanNode;
 import goalplantree.TreeNode;
 import util.Log;
 
-import java.util.ArrayList;
 
 public class Round_Robin_Scheduler extends Scheduler {
 
     private BeliefBase beliefs;
-    private ArrayList<TreeNode> intentions;
+    private State state;
     private boolean verbose;
     int index;
 
@@ -24,7 +23,7 @@ public class Round_Robin_Scheduler extends Scheduler {
     public void update(State state)
     {
         this.beliefs = state.getBeliefBase();
-        this.intentions = state.getIntentions();
+        this.state = state;
     }
     
 	@Override
@@ -41,22 +40,22 @@ public class Round_Robin_Scheduler extends Scheduler {
 		int iter = 0;
 		while (!progressable(index))
 		{
-			index = (index + 1) % intentions.size();
+			index = (index + 1) % state.getTotalNumberOfGPTs();
 			
 			iter++;
-			if (iter >= intentions.size())
+			if (iter >= state.getTotalNumberOfGPTs())
 			{
 				return new Decision(-1, -1, true);
 			}
 		}
 		
 		int iChoice = index;
-		index = (index + 1) % intentions.size();
+		index = (index + 1) % state.getTotalNumberOfGPTs();
 
 		int pChoice = -1;
-		if ((iChoice != -1) && (intentions.get(iChoice) instanceof GoalNode))
+		if ((iChoice != -1) && (state.getIntention(iChoice) instanceof GoalNode))
 		{
-			GoalNode goal = (GoalNode) intentions.get(iChoice);
+			GoalNode goal = (GoalNode) state.getIntention(iChoice);
 			Log.info(goal.getType(), verbose);
             
             PlanNode[] plans = goal.getPlans();
@@ -64,7 +63,7 @@ public class Round_Robin_Scheduler extends Scheduler {
             // Find the first available plan
             for(int i = 0; i < plans.length; i++)
             {
-                Condition[] prec = plans[i].getPrec();
+                ConditionMask prec = plans[i].getPrecMask();
                 if(beliefs.evaluate(prec))
                 {
                 	pChoice = i;
@@ -78,16 +77,16 @@ public class Round_Robin_Scheduler extends Scheduler {
 
     public boolean progressable(int num)
     {
-        if(intentions.get(num) == null)
+        if(state.isCompleted(num))
         {
             return false;
         }
         else
         {
-            if(intentions.get(num) instanceof ActionNode)
+            if(state.getIntention(num) instanceof ActionNode)
             {
-                ActionNode action = (ActionNode) intentions.get(num);
-                Condition[] prec = action.getPrec();
+                ActionNode action = (ActionNode) state.getIntention(num);
+                ConditionMask prec = action.getPrecMask();
                 
                 // if its precondition holds
                 if(beliefs.evaluate(prec))
@@ -102,13 +101,13 @@ public class Round_Robin_Scheduler extends Scheduler {
             }
             else
             {
-                GoalNode goal = (GoalNode) intentions.get(num);
+                GoalNode goal = (GoalNode) state.getIntention(num);
                 PlanNode[] plans = goal.getPlans();
                 
                 // check if there is a plan can be applied
                 for(int i = 0; i < plans.length; i++)
                 {
-                    Condition[] prec = plans[i].getPrec();
+                    ConditionMask prec = plans[i].getPrecMask();
                     // if one plan can be applied, return true
                     if(beliefs.evaluate(prec))
                     {
@@ -10,10 +10,21 @@ public abstract class Scheduler {
 	public boolean[][] available_intentions;
 	public double[][] intention_values;
 	
+	// Bit masks of the intentions owned by each agent, and of the intentions counted in this scheduler's score
+	public long[][] owned_intentions;
+	public long[] scored_intentions;
+	
     public abstract Decision getDecision(State state);
     
     public abstract void reset();
     
+    /**
+     * called by Match.run once the match is over, to stop any work the scheduler does between its decisions
+     */
+    public void endMatch()
+    {
+    }
+    
     public void loadMatchDetails(Match match, int agent_num, boolean mirror_match)
     {
     	this.match = match;
@@ -68,5 +79,12 @@ public abstract class Scheduler {
 				intention_values[agentNum][intentionNum] = allianceMatrix[agentNum][agentToAssignIntention];
 			}
 		}
+		
+		this.owned_intentions = new long[match.numAgents][];
+		for (int agentNum = 0; agentNum < match.numAgents; agentNum++)
+		{
+			owned_intentions[agentNum] = State.toMask(available_intentions[agentNum]);
+		}
+		this.scored_intentions = owned_intentions[agent_num];
     }
 }
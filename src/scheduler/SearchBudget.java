@@ -0,0 +1,210 @@
+package scheduler;
+
+import java.util.Arrays;
+
+import goalplantree.Forest;
+
+/**
+ * A compute budget for all the searches of an MCTS scheduler in a match, counted in iterations of each search tree.
+ *
+ * Each decision is allotted an equal share of what is left of the budget, the number of shares being the number of
+ * steps the scheduler still has to make to complete its intentions. The share is scaled by how many moves the
+ * decision has compared with the decisions so far. During the search, the decision is taken early once the best
+ * root child leads the second by dominance_z standard errors, and the search is extended (up to max_extension
+ * times the share) while the two are closer than close_z standard errors.
+ */
+public class SearchBudget {
+
+	public final int iterationsPerMatch;
+
+	// how many standard errors the best root child has to lead the second by to stop the search early, or to
+	// stop it when the share has been spent rather than extending it
+	public double dominance_z;
+	public double close_z;
+
+	// the search is never stopped before min_fraction of its share, nor extended beyond max_extension times it
+	public double min_fraction;
+	public double max_extension;
+
+	private int spent;
+	private int decisions;
+	private double meanMoves;
+
+	// the least number of steps needed to complete the intention of each node of the forest, from that node
+	private Forest forest;
+	private int[] remainingSteps;
+
+	public SearchBudget(int iterationsPerMatch)
+	{
+		this.iterationsPerMatch = iterationsPerMatch;
+		this.dominance_z = 3.0;
+		this.close_z = 1.0;
+		this.min_fraction = 0.25;
+		this.max_extension = 2.0;
+	}
+
+	/**
+	 * Start spending the budget of a new match
+	 */
+	public void startMatch()
+	{
+		spent = 0;
+		decisions = 0;
+		meanMoves = 0;
+	}
+
+	/**
+	 * @param state the state to decide in
+	 * @param owned bit mask of the intentions of the scheduler
+	 * @param numMoves the number of moves other than passing
+	 * @return the number of iterations to spend on the decision if no child dominates
+	 */
+	public int allocate(State state, long[] owned, int numMoves)
+	{
+		decisions++;
+		meanMoves += (numMoves - meanMoves) / decisions;
+
+		int left = Math.max(0, iterationsPerMatch - spent);
+		int steps = 0;
+		for (int i = 0; i < state.getTotalNumberOfGPTs(); i++)
+		{
+			if ((owned[i >>> 6] & (1L << i)) != 0 && !state.isCompleted(i))
+			{
+				steps += getRemainingSteps(state.forest, state.getIntentionId(i));
+			}
+		}
+
+		double branching = Math.max(0.5, Math.min(2.0, numMoves / meanMoves));
+		int share = (int)(branching * left / Math.max(1, steps));
+		return Math.max(1, Math.min(share, left));
+	}
+
+	/**
+	 * @return the most iterations the decision may take, when the search is extended
+	 */
+	public int getLimit(int share)
+	{
+		int left = Math.max(0, iterationsPerMatch - spent);
+		return Math.max(share, Math.min((int)(share * max_extension), left));
+	}
+
+	/**
+	 * @param done the number of iterations made so far
+	 * @param share the number of iterations allocated to the decision
+	 * @param visits the visits of each root child
+	 * @param values the sum of the values of each root child for the scheduler
+	 * @param sqValues the sum of the squares of those values
+	 * @return true if the search can stop
+	 */
+	public boolean isDecided(int done, int share, int[] visits, double[] values, double[] sqValues)
+	{
+		if (done < min_fraction * share)
+		{
+			return false;
+		}
+
+		// The best and second best root children by average value, the decision being taken on the average
+		int best = -1;
+		int second = -1;
+		for (int i = 0; i < visits.length; i++)
+		{
+			if (visits[i] == 0)
+			{
+				// Nothing is known about this child yet
+				return done >= share;
+			}
+			if (best == -1 || values[i] / visits[i] > values[best] / visits[best])
+			{
+				second = best;
+				best = i;
+			}
+			else if (second == -1 || values[i] / visits[i] > values[second] / visits[second])
+			{
+				second = i;
+			}
+		}
+		if (second == -1)
+		{
+			return true;
+		}
+
+		double lead = values[best] / visits[best] - values[second] / visits[second];
+		double error = Math.sqrt(variance(visits[best], values[best], sqValues[best]) / visits[best]
+			+ variance(visits[second], values[second], sqValues[second]) / visits[second]);
+
+		if (lead > dominance_z * error)
+		{
+			return true;
+		}
+		return done >= share && lead > close_z * error;
+	}
+
+	/**
+	 * Count iterations against the budget
+	 */
+	public void spend(int iterations)
+	{
+		spent += iterations;
+	}
+
+	public int getSpent()
+	{
+		return spent;
+	}
+
+	private static double variance(int n, double sum, double sumSq)
+	{
+		double mean = sum / n;
+		return Math.max(0.0, sumSq / n - mean * mean);
+	}
+
+	/**
+	 * @return the least number of actions needed to complete the intention from the given node
+	 */
+	private int getRemainingSteps(Forest forest, int id)
+	{
+		if (this.forest != forest)
+		{
+			this.forest = forest;
+			this.remainingSteps = new int[forest.size()];
+			Arrays.fill(remainingSteps, -1);
+		}
+		if (remainingSteps[id] < 0)
+		{
+			int successor = forest.getSuccessor(id);
+			remainingSteps[id] = getMinSteps(forest, id) + ((successor < 0)? 0 : getRemainingSteps(forest, successor));
+		}
+		return remainingSteps[id];
+	}
+
+	/**
+	 * @return the least number of actions needed to complete the given node
+	 */
+	private static int getMinSteps(Forest forest, int id)
+	{
+		int first = forest.getFirstChild(id);
+		int count = forest.getChildCount(id);
+
+		switch (forest.getKind(id))
+		{
+			case Forest.ACTION:
+				return 1;
+
+			case Forest.GOAL:
+				int min = (count == 0)? 0 : Integer.MAX_VALUE;
+				for (int plan = first; plan < first + count; plan++)
+				{
+					min = Math.min(min, getMinSteps(forest, plan));
+				}
+				return min;
+
+			default:
+				int sum = 0;
+				for (int step = first; step < first + count; step++)
+				{
+					sum += getMinSteps(forest, step);
+				}
+				return sum;
+		}
+	}
+}
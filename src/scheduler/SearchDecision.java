@@ -0,0 +1,22 @@
+package scheduler;
+
+/**
+ * A decision made by a search, with how much searching it took
+ */
+public class SearchDecision extends Decision {
+
+	// the number of iterations and rollouts the search completed
+	public int iterations;
+	public int rollouts;
+
+	// the time the search took, in nanoseconds
+	public long elapsedNanos;
+
+	public SearchDecision(int iChoice, int pChoice, boolean forcedPass, int iterations, int rollouts, long elapsedNanos)
+	{
+		super(iChoice, pChoice, forcedPass);
+		this.iterations = iterations;
+		this.rollouts = rollouts;
+		this.elapsedNanos = elapsedNanos;
+	}
+}
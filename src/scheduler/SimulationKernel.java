@@ -0,0 +1,238 @@
+package scheduler;
+
+import java.util.Random;
+
+import goalplantree.Forest;
+
+/**
+ * Plays rollouts: games from a given state to the end, with every player following the Stochastic_FIFO_Scheduler
+ * policy under the rules of Match.play. The moves are enumerated by a MoveGenerator, and all the working storage is
+ * reused from one rollout to the next, so a rollout allocates nothing once the move buffers have grown to the most
+ * moves of a state.
+ *
+ * A kernel keeps the previous choice of each player between steps, so it must only be used by one thread at a time.
+ */
+public class SimulationKernel {
+
+	private final MatchSpec spec;
+	private final Random rm;
+
+	// the previous choice of each player
+	private final int[] previousIChoice;
+	private final int[] previousPChoice;
+
+	// the moves of the player to move
+	private final MoveGenerator moves;
+
+	// the decision of the player to move
+	private int iChoice;
+	private int pChoice;
+	private boolean forcedPass;
+
+	// the score of each agent at the end of the last rollout
+	private final double[] scores;
+
+	// the number of steps after which a rollout is stopped and the state scored by the evaluator, 0 for none
+	private int cutoff;
+	private final CoverageEvaluator evaluator;
+
+	public SimulationKernel(MatchSpec spec, Random rm)
+	{
+		this.spec = spec;
+		this.rm = rm;
+		this.moves = new MoveGenerator();
+		this.previousIChoice = new int[spec.numAgents];
+		this.previousPChoice = new int[spec.numAgents];
+		this.scores = new double[spec.numAgents];
+		this.evaluator = new CoverageEvaluator(spec);
+	}
+
+	/**
+	 * @param cutoff the number of steps (moves or passes) after which a rollout is stopped, its state being scored
+	 * by a CoverageEvaluator instead of by the intentions completed, 0 to play every rollout to the end
+	 */
+	public void setCutoff(int cutoff)
+	{
+		this.cutoff = cutoff;
+	}
+
+	/**
+	 * Play the game from the given state until it ends, or until the cutoff, updating the state in place.
+	 * @return the score of each agent at the end of the game, or the expected score at the cutoff. The array is
+	 * reused by the next rollout.
+	 */
+	public double[] simulate(State state)
+	{
+		for (int a = 0; a < spec.numAgents; a++)
+		{
+			previousIChoice[a] = -1;
+			previousPChoice[a] = -1;
+		}
+		int consecutivePasses = 0;
+		int steps = 0;
+
+		while (nextDecision(state))
+		{
+			if (iChoice == -1)
+			{
+				consecutivePasses++;
+
+				if (consecutivePasses >= spec.maxConsecutivePasses)
+				{
+					break; // Game over due to repetition
+				}
+			}
+			else
+			{
+				consecutivePasses = 0;
+				execute(state, iChoice, pChoice);
+			}
+
+			state.playerTurn = (state.playerTurn + 1) % spec.numAgents;
+
+			if (++steps == cutoff)
+			{
+				return evaluator.evaluate(state, scores);
+			}
+		}
+
+		return score(state, scores);
+	}
+
+	/**
+	 * @param scores where to store the score of each agent
+	 * @return scores, holding the score of each agent in the given state
+	 */
+	public double[] score(State state, double[] scores)
+	{
+		for (int a = 0; a < spec.numAgents; a++)
+		{
+			double score = 0;
+
+			for (int owner = 0; owner < spec.numAgents; owner++)
+			{
+				if (spec.value[a][owner] != 0.0)
+				{
+					score += spec.value[a][owner] * state.getNumIntentionsCompleted(spec.counted[a][owner]);
+				}
+			}
+
+			scores[a] = score;
+		}
+		return scores;
+	}
+
+	/**
+	 * Get the decision of the next player that is not forced to pass, skipping the turns of those that are
+	 * @return false if every player is forced to pass
+	 */
+	private boolean nextDecision(State state)
+	{
+		for (int iter = 0; iter < spec.numAgents; iter++)
+		{
+			decide(state);
+
+			if (!forcedPass)
+			{
+				return true;
+			}
+			state.playerTurn = (state.playerTurn + 1) % spec.numAgents;
+		}
+		return false;
+	}
+
+	/**
+	 * The decision of the player to move, as made by Stochastic_FIFO_Scheduler
+	 */
+	private void decide(State state)
+	{
+		int agent = state.playerTurn;
+		int numMoves = moves.generate(state, spec.movable[agent]);
+
+		if (rm.nextDouble() < spec.stochasticity)
+		{
+			// Any move or a pass, a pass being forced if there is no move
+			int k = rm.nextInt(numMoves + 1);
+			if (k == numMoves)
+			{
+				choose(agent, -1, -1, numMoves == 0);
+			}
+			else
+			{
+				chooseMove(agent, k);
+			}
+			return;
+		}
+
+		if (numMoves == 0)
+		{
+			choose(agent, -1, -1, true);
+			return;
+		}
+
+		// Stick with previous plan if possible, otherwise with the first applicable plan of the previous intention
+		int prevI = previousIChoice[agent];
+		int move = (prevI == -1)? -1 : moves.indexOf(prevI, previousPChoice[agent]);
+		if (move == -1 && prevI != -1)
+		{
+			move = moves.indexOf(prevI);
+		}
+
+		// Worst case, a random move
+		chooseMove(agent, (move == -1)? rm.nextInt(numMoves) : move);
+	}
+
+	private void choose(int agent, int iChoice, int pChoice, boolean forcedPass)
+	{
+		this.iChoice = previousIChoice[agent] = iChoice;
+		this.pChoice = previousPChoice[agent] = pChoice;
+		this.forcedPass = forcedPass;
+	}
+
+	private void chooseMove(int agent, int move)
+	{
+		choose(agent, moves.getIntentionChoice(move), moves.getPlanChoice(move), false);
+	}
+
+	/**
+	 * Progress an intention as Match does: a plan is adopted together with its first step, and nothing happens
+	 * if the precondition of the plan or of its first action does not hold
+	 */
+	private void execute(State state, int index, int plan)
+	{
+		Forest forest = state.forest;
+		int node = state.getIntentionId(index);
+
+		if (forest.getKind(node) == Forest.GOAL)
+		{
+			if (state.isApplicable(index, plan))
+			{
+				int planId = forest.getFirstChild(node) + plan;
+				int first = forest.getFirstChild(planId);
+
+				if (first < 0)
+				{
+					// An empty plan completes the goal straight away
+					state.setIntentionId(index, forest.getSuccessor(planId));
+				}
+				else if (forest.getKind(first) == Forest.ACTION)
+				{
+					if (state.beliefs.evaluate(forest.getMask(forest.getPrec(first))))
+					{
+						state.apply(forest.getMask(forest.getPostc(first)));
+						state.setIntentionId(index, forest.getSuccessor(first));
+					}
+				}
+				else
+				{
+					state.setIntentionId(index, first);
+				}
+			}
+		}
+		else if (state.isApplicable(index, 0))
+		{
+			state.apply(forest.getMask(forest.getPostc(node)));
+			state.setIntentionId(index, forest.getSuccessor(node));
+		}
+	}
+}
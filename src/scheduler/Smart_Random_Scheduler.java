@@ -1,6 +1,6 @@
 package scheduler;
 import beliefbase.BeliefBase;
-import beliefbase.Condition;
+import beliefbase.ConditionMask;
 import goalplantree.ActionNode;
 import goalplantree.GoalNode;
 import goalplantree.PlanNode;
@@ -15,7 +15,7 @@ public class Smart_Random_Scheduler extends Scheduler {
     private static Random rm = new Random();
     
     private BeliefBase beliefs;
-    private ArrayList<TreeNode> intentions;
+    private State state;
     private double[] coverage;
     private boolean verbose;
 
@@ -32,8 +32,8 @@ public class Smart_Random_Scheduler extends Scheduler {
     public void update(State state)
     {
         this.beliefs = state.getBeliefBase();
-        this.intentions = state.getIntentions();
-        this.coverage = new double[intentions.size()];
+        this.state = state;
+        this.coverage = new double[state.getTotalNumberOfGPTs()];
     }
     
 	@Override
@@ -86,9 +86,9 @@ public class Smart_Random_Scheduler extends Scheduler {
         }
         
 		int pChoice = -1;
-		if ((iChoice != -1) && (intentions.get(iChoice) instanceof GoalNode))
+		if ((iChoice != -1) && (state.getIntention(iChoice) instanceof GoalNode))
 		{
-			GoalNode goal = (GoalNode) intentions.get(iChoice);
+			GoalNode goal = (GoalNode) state.getIntention(iChoice);
 			Log.info(goal.getType(), verbose);
             
             PlanNode[] plans = goal.getPlans();
@@ -97,7 +97,7 @@ public class Smart_Random_Scheduler extends Scheduler {
             ArrayList<Integer> ava_plans = new ArrayList<>();
             for(int i = 0; i < plans.length; i++)
             {
-                Condition[] prec = plans[i].getPrec();
+                ConditionMask prec = plans[i].getPrecMask();
                 if(beliefs.evaluate(prec))
                 {
                 	ava_plans.add(i);
@@ -134,7 +134,7 @@ public class Smart_Random_Scheduler extends Scheduler {
         for(int i = 0; i < coverage.length; i++)
         {
             // if this intention is finished
-            if(intentions.get(i) == null)
+            if(state.isCompleted(i))
             {
                 coverage[i] = 0;
             }
@@ -143,7 +143,7 @@ public class Smart_Random_Scheduler extends Scheduler {
             {
                 double result = 1;
 
-                TreeNode current = intentions.get(i);
+                TreeNode current = state.getIntention(i);
 
                 while (current != null)
                 {
@@ -153,7 +153,7 @@ public class Smart_Random_Scheduler extends Scheduler {
                         result = result * goal.getEc();
                     }
 
-                    current = nextCoverage(current);
+                    current = current.nextIstep();
                 }
 
                 coverage[i] = result;
@@ -167,30 +167,6 @@ public class Smart_Random_Scheduler extends Scheduler {
 
     }
 
-    private TreeNode nextCoverage(TreeNode node)
-    {
-        // if there is another step in the same plan
-        if(node.getNext() != null)
-        {
-            return node.getNext();
-        }
-        else
-        {
-            // if it is the top-level goal
-            if(node.getParent() == null)
-            {
-                return null;
-            }
-            else
-            {
-                // if it is the last step in a plan
-                TreeNode goal = node.getParent().getParent();// get the parent node it is going to achieve
-                return nextCoverage(goal);
-            }
-        }
-    }
-
-
     public double[] getCoverage()
     {
         return this.coverage;
@@ -198,16 +174,16 @@ public class Smart_Random_Scheduler extends Scheduler {
 
     public boolean progressable(int num)
     {
-        if(intentions.get(num) == null)
+        if(state.isCompleted(num))
         {
             return false;
         }
         else
         {
-            if(intentions.get(num) instanceof ActionNode)
+            if(state.getIntention(num) instanceof ActionNode)
             {
-                ActionNode action = (ActionNode) intentions.get(num);
-                Condition[] prec = action.getPrec();
+                ActionNode action = (ActionNode) state.getIntention(num);
+                ConditionMask prec = action.getPrecMask();
                 
                 // if its precondition holds
                 if(beliefs.evaluate(prec))
@@ -222,13 +198,13 @@ public class Smart_Random_Scheduler extends Scheduler {
             }
             else
             {
-                GoalNode goal = (GoalNode) intentions.get(num);
+                GoalNode goal = (GoalNode) state.getIntention(num);
                 PlanNode[] plans = goal.getPlans();
                 
                 // check if there is a plan can be applied
                 for(int i = 0; i < plans.length; i++)
                 {
-                    Condition[] prec = plans[i].getPrec();
+                    ConditionMask prec = plans[i].getPrecMask();
                     // if one plan can be applied, return true
                     if(beliefs.evaluate(prec))
                     {
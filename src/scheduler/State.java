@@ -1,96 +1,452 @@
 package scheduler;
 
 import beliefbase.BeliefBase;
+import beliefbase.ConditionMask;
+import goalplantree.Forest;
 import goalplantree.TreeNode;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+
+import util.Zobrist;
 
 public class State {
 
 	public String forest_name;
-	
-    // current belief base
+
+    // current belief base (postconditions have to be applied through apply, which keeps the applicable moves up to date)
     public BeliefBase beliefs;
 
-    // the list of intentions
-    public ArrayList<TreeNode> intentions;
-    
+    // the goal-plan trees of the intentions
+    public Forest forest;
+
+    // the forest id of the next step of each intention, -1 once the intention is completed
+    // (updated through setIntention, which keeps the completion mask and the hash of the state up to date)
+    private int[] intentions;
+
+    // bit i is set once intention i is completed
+    private long[] completed;
+    private int numCompleted;
+
     public int playerTurn;
 
-    public State(String forest_name, BeliefBase beliefs, ArrayList<TreeNode> intentions, int playerTurn)
+    // the applicable moves, one bit per move slot of the forest (the plans of the goal an intention is at, or
+    // the action an intention is at): the first words tell whether the precondition of a move has been checked
+    // since the last change that may affect it, the words from valueOffset whether it holds. Allocated when
+    // a move is first queried, as most of the states created by a search are never queried.
+    private long[] moves;
+    private int valueOffset;
+
+    // Zobrist hash of the (intention, next step) pairs, kept up to date by setIntention
+    private long intentionHash;
+
+    // journal of the intention updates made since mark() was called, so that they can be rewound
+    private boolean journaling;
+    private int[] journalIndices;
+    private int[] journalNodes;
+    private int journalSize;
+    private int markedBeliefs;
+    private int markedPlayerTurn;
+
+    /**
+     * The initial state of the given forest, where every intention is at its top-level goal
+     */
+    public State(String forest_name, BeliefBase beliefs, Forest forest, int playerTurn)
     {
     	this.forest_name = forest_name;
         this.beliefs = beliefs;
-        this.intentions = new ArrayList<TreeNode>(intentions);
+        this.forest = forest;
+        this.intentions = new int[forest.getNumIntentions()];
+        this.completed = new long[(intentions.length + 63) / 64];
         this.playerTurn = playerTurn;
+
+        for (int i = 0; i < intentions.length; i++)
+        {
+        	intentions[i] = forest.getRoot(i);
+        	intentionHash ^= Zobrist.cursor(i, intentions[i]);
+        }
+
+        this.valueOffset = (forest.getNumSlots() + 63) / 64;
     }
-    
-    public State(BeliefBase beliefs, ArrayList<TreeNode> intentions, int playerTurn)
+
+    /**
+     * A copy of the given state with another belief base, which must hold the same beliefs
+     */
+    public State(State other, BeliefBase beliefs)
     {
-    	this("", beliefs, intentions, playerTurn);
+    	this.forest_name = other.forest_name;
+    	this.beliefs = beliefs;
+    	this.forest = other.forest;
+    	this.intentions = other.intentions.clone();
+    	this.completed = other.completed.clone();
+    	this.numCompleted = other.numCompleted;
+    	this.playerTurn = other.playerTurn;
+    	this.intentionHash = other.intentionHash;
+    	this.valueOffset = other.valueOffset;
     }
-    
+
     public BeliefBase getBeliefBase()
     {
         return this.beliefs;
     }
 
-    public ArrayList<TreeNode> getIntentions()
+    /**
+     * @return the next step of the given intention, null if it is completed
+     */
+    public TreeNode getIntention(int index)
+    {
+        return forest.getNode(intentions[index]);
+    }
+
+    /**
+     * @return the forest id of the next step of the given intention, -1 if it is completed
+     */
+    public int getIntentionId(int index)
+    {
+    	return intentions[index];
+    }
+
+    public boolean isCompleted(int index)
+    {
+    	return intentions[index] < 0;
+    }
+
+    /**
+     * update the next step of an intention (null once it is completed), the completion mask and the hash of the state.
+     * The previous step is recorded if the state is marked.
+     */
+    public void setIntention(int index, TreeNode node)
+    {
+    	int id = -1;
+    	if (node != null)
+    	{
+    		id = node.getNodeId();
+    		if (forest.getNode(id) != node)
+    		{
+    			throw new IllegalArgumentException(node.getType() + " is not part of the forest of this state");
+    		}
+    	}
+    	setIntentionId(index, id);
+    }
+
+    /**
+     * update the next step of an intention by its forest id, -1 once it is completed.
+     * The previous step is recorded if the state is marked.
+     */
+    public void setIntentionId(int index, int id)
+    {
+    	if (journaling)
+    	{
+    		if (journalSize == journalIndices.length)
+    		{
+    			journalIndices = Arrays.copyOf(journalIndices, journalSize * 2);
+    			journalNodes = Arrays.copyOf(journalNodes, journalSize * 2);
+    		}
+    		journalIndices[journalSize] = index;
+    		journalNodes[journalSize] = intentions[index];
+    		journalSize++;
+    	}
+    	replaceIntention(index, id);
+    	forgetMoves(index);
+    }
+
+    private void replaceIntention(int index, int id)
+    {
+    	int old = intentions[index];
+    	intentions[index] = id;
+    	intentionHash ^= Zobrist.cursor(index, old) ^ Zobrist.cursor(index, id);
+
+    	if ((old < 0) != (id < 0))
+    	{
+    		completed[index >>> 6] ^= 1L << index;
+    		numCompleted += (id < 0)? 1 : -1;
+    	}
+    }
+
+    /**
+     * apply a postcondition to the beliefs. The moves of the intentions whose preconditions mention one of its
+     * literals will be checked again.
+     */
+    public void apply(ConditionMask postc)
+    {
+    	beliefs.apply(postc);
+
+    	if (moves == null)
+    	{
+    		return;
+    	}
+    	if (postc.getDictionary() != forest.getDictionary())
+    	{
+    		// the literal ids of the postcondition do not match the watched literals
+    		forgetMoves();
+    		return;
+    	}
+
+    	int common = Math.min(forest.getWatchWords(), postc.getWords());
+    	for (int i = 0; i < intentions.length; i++)
+    	{
+    		if (intentions[i] >= 0)
+    		{
+    			for (int w = 0; w < common; w++)
+    			{
+    				if ((forest.getWatchWord(intentions[i], w) & postc.getCare(w)) != 0)
+    				{
+    					forgetMoves(i);
+    					break;
+    				}
+    			}
+    		}
+    	}
+    }
+
+    /**
+     * @param index the index of an intention
+     * @param move the index of a plan of the goal the intention is at, 0 if the intention is at an action
+     * @return true if the precondition of the plan or action holds, false if the intention is completed
+     */
+    public boolean isApplicable(int index, int move)
     {
-        return this.intentions;
+    	if (intentions[index] < 0)
+    	{
+    		return false;
+    	}
+    	if (moves == null)
+    	{
+    		moves = new long[2 * valueOffset];
+    	}
+
+    	int slot = forest.getSlotStart(index) + move;
+    	long bit = 1L << slot;
+    	if ((moves[slot >>> 6] & bit) == 0)
+    	{
+    		// check the precondition of the move: a plan of the goal, or the action itself
+    		int cursor = intentions[index];
+    		int id = (forest.getKind(cursor) == Forest.GOAL)? forest.getFirstChild(cursor) + move : cursor;
+    		if (beliefs.evaluate(forest.getMask(forest.getPrec(id))))
+    		{
+    			moves[valueOffset + (slot >>> 6)] |= bit;
+    		}
+    		else
+    		{
+    			moves[valueOffset + (slot >>> 6)] &= ~bit;
+    		}
+    		moves[slot >>> 6] |= bit;
+    	}
+    	return (moves[valueOffset + (slot >>> 6)] & bit) != 0;
+    }
+
+    /**
+     * forget whether the moves of the given intention are applicable
+     */
+    private void forgetMoves(int index)
+    {
+    	if (moves == null)
+    	{
+    		return;
+    	}
+    	for (int slot = forest.getSlotStart(index); slot < forest.getSlotStart(index + 1); slot++)
+    	{
+    		moves[slot >>> 6] &= ~(1L << slot);
+    	}
     }
-    
+
+    /**
+     * forget whether any move is applicable
+     */
+    private void forgetMoves()
+    {
+    	if (moves != null)
+    	{
+    		Arrays.fill(moves, 0, valueOffset, 0L);
+    	}
+    }
+
+    /**
+     * record the current state, so that rewind() can return to it in time proportional to the number of changes.
+     * Only changes made through apply and setIntention are recorded.
+     */
+    public void mark()
+    {
+    	if (journalIndices == null)
+    	{
+    		journalIndices = new int[16];
+    		journalNodes = new int[16];
+    	}
+    	journaling = true;
+    	journalSize = 0;
+    	markedBeliefs = beliefs.mark();
+    	markedPlayerTurn = playerTurn;
+    }
+
+    /**
+     * return to the state recorded by the last call to mark(). The state stays marked.
+     */
+    public void rewind()
+    {
+    	while (journalSize > 0)
+    	{
+    		journalSize--;
+    		replaceIntention(journalIndices[journalSize], journalNodes[journalSize]);
+    	}
+    	beliefs.undo(markedBeliefs);
+    	playerTurn = markedPlayerTurn;
+
+    	// a rollout changes most of the moves, so they are checked again rather than journalled
+    	forgetMoves();
+    }
+
+    /**
+     * stop recording changes
+     */
+    public void release()
+    {
+    	journaling = false;
+    	journalSize = 0;
+    	beliefs.release();
+    }
+
+    /**
+     * overwrite this state with the given one, reusing the belief base and the arrays of this state.
+     * This forgets the recorded changes, so mark() has to be called again before rewinding.
+     */
+    public void copyFrom(State other)
+    {
+    	forest_name = other.forest_name;
+    	forest = other.forest;
+    	beliefs.copyFrom(other.beliefs);
+    	if (intentions.length != other.intentions.length)
+    	{
+    		intentions = new int[other.intentions.length];
+    		completed = new long[other.completed.length];
+    	}
+    	valueOffset = other.valueOffset;
+    	if (other.moves != null && (moves == null || moves.length != other.moves.length))
+    	{
+    		moves = new long[other.moves.length];
+    	}
+    	System.arraycopy(other.intentions, 0, intentions, 0, intentions.length);
+    	System.arraycopy(other.completed, 0, completed, 0, completed.length);
+    	if (other.moves != null)
+    	{
+    		System.arraycopy(other.moves, 0, moves, 0, moves.length);
+    	}
+    	else
+    	{
+    		forgetMoves();
+    	}
+    	numCompleted = other.numCompleted;
+    	playerTurn = other.playerTurn;
+    	intentionHash = other.intentionHash;
+    	journalSize = 0;
+    }
+
+    /**
+     * @return the 64-bit Zobrist hash of this state, over its beliefs, the next step of each intention and the player turn
+     */
+    public long getHash()
+    {
+    	return beliefs.getHash() ^ intentionHash ^ Zobrist.turn(playerTurn);
+    }
+
+    @Override
+    public int hashCode()
+    {
+    	long hash = getHash();
+    	return (int)(hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Two states are equal if the same literals hold in them, their intentions are at the same steps and
+     * the same player is to move. The forest name is ignored.
+     */
+    @Override
+    public boolean equals(Object o)
+    {
+    	if (this == o)
+    	{
+    		return true;
+    	}
+    	if (!(o instanceof State))
+    	{
+    		return false;
+    	}
+
+    	State other = (State) o;
+    	return playerTurn == other.playerTurn
+    		&& intentionHash == other.intentionHash
+    		&& forest == other.forest
+    		&& Arrays.equals(intentions, other.intentions)
+    		&& beliefs.equals(other.beliefs);
+    }
+
     public int getTotalNumberOfGPTs()
     {
-    	return this.intentions.size();
+    	return this.intentions.length;
     }
-    
+
+    public int getNumIntentionsCompleted()
+    {
+    	return numCompleted;
+    }
+
     public int getNumIntentionsCompleted(boolean[] intention_available)
+    {
+    	return getNumIntentionsCompleted(toMask(intention_available));
+    }
+
+    /**
+     * @param intention_mask bit i is set if intention i is counted
+     */
+    public int getNumIntentionsCompleted(long[] intention_mask)
     {
     	int intentions_completed = 0;
-    	
-        for (int i = 0; i < intentions.size(); i++)
-        {
-        	if (intention_available[i] && (intentions.get(i) == null))
-        	{
-                intentions_completed++;
-        	}
-        }
 
-        return intentions_completed;
+    	for (int w = 0; w < completed.length; w++)
+    	{
+    		intentions_completed += Long.bitCount(completed[w] & intention_mask[w]);
+    	}
+
+    	return intentions_completed;
     }
-    
+
     public double getStateScore(Scheduler sched)
     {
-    	double[] intention_values = sched.intention_values[sched.agent_num];
+    	double[] alliances = sched.allianceMatrix[sched.agent_num];
+
+    	// Completed intentions are counted per owner, as every intention of an owner has the same value
+    	double score = 0;
 
-    	boolean[] intention_counts_towards_score = new boolean[intention_values.length];
-    	if (sched instanceof MCTS_Scheduler)
+    	for (int owner = 0; owner < alliances.length; owner++)
     	{
-    		for (int i = 0; i < intention_counts_towards_score.length; i++)
+    		if (alliances[owner] != 0.0)
     		{
-    			intention_counts_towards_score[i] = ((MCTS_Scheduler)sched).gpt_visible[i];
+    			int count = 0;
+
+    	    	for (int w = 0; w < completed.length; w++)
+    	    	{
+    	    		count += Long.bitCount(completed[w] & sched.owned_intentions[owner][w] & sched.scored_intentions[w]);
+    	    	}
+
+    	    	score += alliances[owner] * count;
     		}
     	}
-    	else
+
+        return score;
+    }
+
+    /**
+     * @return a bit mask with bit i set if flags[i] is true
+     */
+    public static long[] toMask(boolean[] flags)
+    {
+    	long[] mask = new long[(flags.length + 63) / 64];
+    	for (int i = 0; i < flags.length; i++)
     	{
-    		intention_counts_towards_score = sched.available_intentions[sched.agent_num];
+    		if (flags[i])
+    		{
+    			mask[i >>> 6] |= 1L << i;
+    		}
     	}
-    	
-    	int score = 0;
-    	
-        for (int i = 0; i < intentions.size(); i++)
-        {
-        	if (intention_counts_towards_score[i])
-        	{
-                if (intentions.get(i) == null)
-                {
-                	score += intention_values[i];
-                }
-        	}
-        }
-        
-        return (double)score;
+    	return mask;
     }
 
     /**
@@ -100,7 +456,7 @@ public class State {
     public State clone()
     {
         // generate the new state
-        return new State(forest_name, beliefs.clone(), new ArrayList<TreeNode>(intentions), playerTurn);
+        return new State(this, beliefs.clone());
     }
 
 }
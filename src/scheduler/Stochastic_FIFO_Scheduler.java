@@ -4,7 +4,7 @@ import java.util.Random;
 
 public class Stochastic_FIFO_Scheduler extends Scheduler {
 
-	public MCTS_Node rootNode;
+	private final MoveGenerator moves = new MoveGenerator();
 	
     private static Random rm = new Random();
     
@@ -14,6 +14,9 @@ public class Stochastic_FIFO_Scheduler extends Scheduler {
 	private double stochasticity;
 	private boolean[] gpt_visible;
 	
+	// bit mask of the intentions this agent may progress
+	private long[] movable;
+	
     public Stochastic_FIFO_Scheduler(double stochasticity, boolean[] gpt_visible)
     {	
     	this.stochasticity = stochasticity;
@@ -30,36 +33,37 @@ public class Stochastic_FIFO_Scheduler extends Scheduler {
     	previousPChoice = -1;
 	}
     
-    public Decision getDecision(State state)
+    @Override
+    public void loadMatchDetails(Match match, int agent_num, boolean mirror_match)
     {
-    	boolean[] restricted_intentions = new boolean[gpt_visible.length];
-    	for (int i = 0; i < restricted_intentions.length; i++)
+    	super.loadMatchDetails(match, agent_num, mirror_match);
+    	
+    	// The intentions of this agent that can be seen
+    	this.movable = owned_intentions[agent_num].clone();
+    	long[] visible = State.toMask(gpt_visible);
+    	for (int w = 0; w < movable.length; w++)
     	{
-    		restricted_intentions[i] = (gpt_visible[i] && available_intentions[agent_num][i]);
+    		movable[w] &= visible[w];
     	}
+    }
+    
+    public Decision getDecision(State state)
+    {
+    	int numMoves = moves.generate(state, movable);
     	
 		if (rm.nextDouble() < stochasticity)
 		{
-	    	this.rootNode = new MCTS_Node(state, match);
-	    	
-	    	this.rootNode.expand(restricted_intentions, true);
+	    	boolean playerMustPass = numMoves == 0;
 	    	
-	    	boolean playerMustPass = rootNode.children.size() == 1;
-	    	
-	        int i = rm.nextInt(rootNode.children.size());
-
-    		//return new Decision(rootNode.children.get(i).getIntentionChoice(), rootNode.children.get(i).getPlanChoice(), playerMustPass);
-    		
-	        previousIChoice = rootNode.children.get(i).getIntentionChoice();
-    		previousPChoice = rootNode.children.get(i).getPlanChoice();
+	        int i = rm.nextInt(numMoves + 1);
+	        
+	        // The last choice is passing
+	        previousIChoice = (i == numMoves)? -1 : moves.getIntentionChoice(i);
+    		previousPChoice = (i == numMoves)? -1 : moves.getPlanChoice(i);
     		return new Decision(previousIChoice, previousPChoice, playerMustPass);
 		}
 		
-    	this.rootNode = new MCTS_Node(state, match);
-    	
-    	this.rootNode.expand(restricted_intentions, false);
-    	
-    	boolean playerMustPass = rootNode.children.size() == 0;
+    	boolean playerMustPass = numMoves == 0;
     	
     	if (playerMustPass)
     	{
@@ -68,35 +72,27 @@ public class Stochastic_FIFO_Scheduler extends Scheduler {
     		return new Decision(previousIChoice, previousPChoice, true);
     	}
     	
+    	int move = -1;
     	if (previousIChoice != -1)
     	{
 	    	// Stick with previous intention and plan if possible
-	    	for (MCTS_Node child : rootNode.children)
-	    	{
-	    		if (child.intentionChoice == previousIChoice && child.planChoice == previousPChoice)
-	    		{
-	        		previousIChoice = child.intentionChoice;
-	        		previousPChoice = child.planChoice;
-	        		return new Decision(previousIChoice, previousPChoice, false);
-	    		}
-	    	}
+    		move = moves.indexOf(previousIChoice, previousPChoice);
 	    	
 	    	// At least stick with previous intention if not possible to stick with previous plan
-	    	for (MCTS_Node child : rootNode.children)
-	    	{
-	    		if (child.intentionChoice == previousIChoice)
-	    		{
-	        		previousIChoice = child.intentionChoice;
-	        		previousPChoice = child.planChoice;
-	    			return new Decision(previousIChoice, previousPChoice, false);
-	    		}
-	    	}
+    		if (move == -1)
+    		{
+    			move = moves.indexOf(previousIChoice);
+    		}
     	}
     	
     	// Worst case, return a random intention and plan
-		int childNum = rm.nextInt(rootNode.children.size());
-    	previousIChoice = rootNode.children.get(childNum).intentionChoice;
-		previousPChoice = rootNode.children.get(childNum).planChoice;
+    	if (move == -1)
+    	{
+    		move = rm.nextInt(numMoves);
+    	}
+    	
+    	previousIChoice = moves.getIntentionChoice(move);
+		previousPChoice = moves.getPlanChoice(move);
 		return new Decision(previousIChoice, previousPChoice, false);
     }
 }
@@ -0,0 +1,103 @@
+package scheduler;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A bounded table from state hashes to the node of a pool that holds the statistics of the state, so that the
+ * different orders of the same moves lead to one node.
+ *
+ * The table has a fixed number of slots, grouped in buckets of two. A node goes into an empty slot of its bucket
+ * if there is one, otherwise it replaces the one of the two nodes with the fewest visits. A node that has been
+ * replaced stays in the tree, it just stops being shared by the states found afterwards.
+ *
+ * Lookups and insertions may race with each other: a node that loses a race is simply not shared. They are made
+ * by the threads searching the pool, so they must be made between NodePool.enter() and NodePool.exit().
+ */
+public class TranspositionTable {
+
+	private final NodePool nodes;
+	private final AtomicIntegerArray slots;
+	private final int mask;
+
+	/**
+	 * @param size the number of slots, rounded up to a power of two (at least 2)
+	 */
+	public TranspositionTable(NodePool nodes, int size)
+	{
+		int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+		this.nodes = nodes;
+		this.slots = new AtomicIntegerArray(capacity);
+		this.mask = capacity - 1;
+		clear();
+	}
+
+	/**
+	 * @return the node of a state equal to the given one, -1 if there is none in the table
+	 */
+	public int get(State state)
+	{
+		long hash = state.getHash();
+		int bucket = bucket(hash);
+
+		for (int s = bucket; s < bucket + 2; s++)
+		{
+			int node = slots.get(s);
+			if (node >= 0 && nodes.state[node].getHash() == hash && nodes.state[node].equals(state))
+			{
+				return node;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * add a node to the table, replacing the least visited node of its bucket if the bucket is full
+	 */
+	public void put(int node)
+	{
+		int bucket = bucket(nodes.state[node].getHash());
+		int first = slots.get(bucket);
+		int second = slots.get(bucket + 1);
+
+		if (first < 0 || (second >= 0 && nodes.visits[first] <= nodes.visits[second]))
+		{
+			slots.set(bucket, node);
+		}
+		else
+		{
+			slots.set(bucket + 1, node);
+		}
+	}
+
+	/**
+	 * renumber the nodes of the table after the pool has been compacted, removing those that were dropped
+	 * @param newIds the new id of each node, -1 for a node that was dropped
+	 */
+	public void remap(int[] newIds)
+	{
+		for (int s = 0; s < slots.length(); s++)
+		{
+			int node = slots.get(s);
+			if (node >= 0)
+			{
+				slots.set(s, newIds[node]);
+			}
+		}
+	}
+
+	/**
+	 * remove all the nodes from the table
+	 */
+	public void clear()
+	{
+		for (int s = 0; s < slots.length(); s++)
+		{
+			slots.set(s, -1);
+		}
+	}
+
+	private int bucket(long hash)
+	{
+		return (int)(hash ^ (hash >>> 32)) & mask & ~1;
+	}
+}
@@ -0,0 +1,52 @@
+package util;
+
+/**
+ * Zobrist keys for hashing scheduler states.
+ *
+ * A state is hashed as the XOR of the keys of its (literal, value) pairs, its (intention, next step) pairs and
+ * its player turn, so the hash can be updated in O(1) whenever one of these changes. Keys are derived from
+ * their index with the SplitMix64 finaliser rather than stored in tables, so they are the same in every run.
+ */
+public class Zobrist
+{
+	private static final long LITERAL_SALT = 0x5851F42D4C957F2DL;
+	private static final long CURSOR_SALT = 0x2545F4914F6CDD1DL;
+	private static final long DONE_SALT = 0x9E6C63D0676A9A99L;
+	private static final long TURN_SALT = 0xD1B54A32D192ED03L;
+
+	/**
+	 * SplitMix64 finaliser
+	 */
+	public static long mix(long z)
+	{
+		z += 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @return the key of a literal being true (a literal being false contributes nothing)
+	 */
+	public static long literal(int literalId)
+	{
+		return mix(LITERAL_SALT + literalId);
+	}
+
+	/**
+	 * @param nodeId the forest id of the next step of the intention, -1 if the intention is completed
+	 * @return the key of an intention being at the given step
+	 */
+	public static long cursor(int intention, int nodeId)
+	{
+		return mix((intention * CURSOR_SALT) ^ (nodeId < 0 ? DONE_SALT : mix(nodeId)));
+	}
+
+	/**
+	 * @return the key of the given player being to move
+	 */
+	public static long turn(int playerTurn)
+	{
+		return mix(TURN_SALT + playerTurn);
+	}
+}
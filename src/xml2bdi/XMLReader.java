@@ -1,7 +1,9 @@
 package xml2bdi;
 import beliefbase.BeliefBase;
 import beliefbase.Condition;
+import beliefbase.LiteralDictionary;
 import goalplantree.ActionNode;
+import goalplantree.Forest;
 import goalplantree.GoalNode;
 import goalplantree.PlanNode;
 import goalplantree.TreeNode;
@@ -14,8 +16,10 @@ import java.util.List;
 
 public class XMLReader {
 
+    private LiteralDictionary dictionary;
     private BeliefBase beliefs;
     private ArrayList<TreeNode> intentions;
+    private Forest forest;
 
     public XMLReader(String url) throws Exception{
         translate(url);
@@ -32,10 +36,17 @@ public class XMLReader {
         // get the environment
         Element environment = toplevelgoals.get(0);
         List<Element> literals = environment.getChildren();
-        beliefs = new BeliefBase("default");
+        // the environment variables are interned first, so that they get the lowest literal ids
+        dictionary = new LiteralDictionary(literals.size());
         for(int i = 0; i < literals.size(); i++){
-            beliefs.apply(new Condition(literals.get(i).getAttributeValue("name"),
-                    literals.get(i).getAttributeValue("initVal").equals("true")));
+            dictionary.intern(literals.get(i).getAttributeValue("name"));
+        }
+        beliefs = new BeliefBase("default", dictionary);
+        for(int i = 0; i < literals.size(); i++){
+            Condition condition = new Condition(literals.get(i).getAttributeValue("name"),
+                    literals.get(i).getAttributeValue("initVal").equals("true"));
+            dictionary.intern(condition);
+            beliefs.apply(condition);
         }
 
         intentions = new ArrayList<>();
@@ -43,6 +54,8 @@ public class XMLReader {
         for( int i = 1; i < toplevelgoals.size(); i++){
             intentions.add(readGoal(toplevelgoals.get(i)));
         }
+        // number the nodes of the goal-plan trees
+        forest = new Forest(intentions);
     }
 
 
@@ -97,6 +110,7 @@ public class XMLReader {
         }
 
         PlanNode planNode = new PlanNode("", name, conditions, new Condition[0], steps);
+        planNode.compile(dictionary);
         return planNode;
     }
 
@@ -114,6 +128,7 @@ public class XMLReader {
         Condition[] postc = readCondition(element.getAttributeValue("postcondition"));
         // generate a new action node
         ActionNode actionNode = new ActionNode("", name, prec, new Condition[0], postc);
+        actionNode.compile(dictionary);
         return actionNode;
     }
 
@@ -132,11 +147,20 @@ public class XMLReader {
         Condition[] cons = new Condition[literals.length / 2];
         for(int i = 0; i < cons.length; i++){
             cons[i] = new Condition(literals[i*2], literals[i*2 + 1].equals("true"));
+            dictionary.intern(cons[i]);
         }
         return cons;
     }
 
 
+    /**
+     * get the literal dictionary built from the xml file
+     * @return
+     */
+    public LiteralDictionary getDictionary(){
+        return this.dictionary;
+    }
+
     /**
      * get the belief set read from an xml file
      * @return
@@ -153,4 +177,12 @@ public class XMLReader {
         return this.intentions;
     }
 
+    /**
+     * get the numbered goal-plan trees of the intentions
+     * @return
+     */
+    public Forest getForest(){
+        return this.forest;
+    }
+
 }